@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+import jenkins.bouncycastle.api.PEMEncodable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JcePEMEncryptorBuilder;
+import org.bouncycastle.util.io.pem.PemObjectGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link PEMEncodable#decode(String, char[])}, which every {@link RemoteAgent#addIdentity} pays, for each
+ * private key format and size, decoding a corpus of generated keys in turn.
+ * Run with the GC profiler to get the allocation rate along with the throughput:
+ * {@code mvn -P benchmark -DskipTests test -Djmh.args="-prof gc PEMDecode"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PEMDecodeBenchmark {
+
+    private static final char[] PASSPHRASE = "benchmark".toCharArray();
+
+    private static final int CORPUS = 8;
+
+    public enum Format {
+        /**
+         * {@code BEGIN RSA PRIVATE KEY} (PKCS#1) or {@code BEGIN EC PRIVATE KEY} (SEC 1).
+         */
+        TRADITIONAL,
+        /**
+         * The traditional format encrypted with AES-128-CBC, as written by {@code ssh-keygen -m PEM}.
+         */
+        TRADITIONAL_ENCRYPTED,
+        /**
+         * {@code BEGIN PRIVATE KEY} (PKCS#8).
+         */
+        PKCS8
+    }
+
+    @Param({"TRADITIONAL", "TRADITIONAL_ENCRYPTED", "PKCS8"})
+    public Format format;
+
+    @Param({"RSA-2048", "RSA-4096", "EC-256", "EC-384"})
+    public String key;
+
+    private String[] corpus;
+
+    private char[] passphrase;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        String[] spec = key.split("-");
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(spec[0]);
+        generator.initialize(Integer.parseInt(spec[1]));
+        corpus = new String[CORPUS];
+        for (int i = 0; i < CORPUS; i++) {
+            corpus[i] = write(generator.generateKeyPair(), format);
+        }
+        passphrase = format == Format.TRADITIONAL_ENCRYPTED ? PASSPHRASE : null;
+        PEMEncodable.decode(corpus[0], passphrase).toKeyPair(); // fail fast on an unsupported format
+    }
+
+    @Benchmark
+    public KeyPair decode() throws Exception {
+        String pem = corpus[next];
+        next = (next + 1) % CORPUS;
+        return PEMEncodable.decode(pem, passphrase).toKeyPair();
+    }
+
+    private static String write(KeyPair keyPair, Format format) throws Exception {
+        StringWriter out = new StringWriter();
+        JcaPEMWriter writer = new JcaPEMWriter(out);
+        try {
+            switch (format) {
+                case TRADITIONAL:
+                    writer.writeObject(keyPair);
+                    break;
+                case TRADITIONAL_ENCRYPTED:
+                    writer.writeObject(keyPair, new JcePEMEncryptorBuilder("AES-128-CBC").build(PASSPHRASE));
+                    break;
+                case PKCS8:
+                    PemObjectGenerator pkcs8 = new JcaPKCS8Generator(keyPair.getPrivate(), null);
+                    writer.writeObject(pkcs8);
+                    break;
+                default:
+                    throw new IOException("Unsupported format " + format);
+            }
+        } finally {
+            writer.close();
+        }
+        return out.toString();
+    }
+}
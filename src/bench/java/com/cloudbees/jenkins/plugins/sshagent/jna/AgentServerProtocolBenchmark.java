@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentClient;
+import com.cloudbees.jenkins.plugins.sshagent.SSHPublicKeys;
+import com.cloudbees.jenkins.plugins.sshagent.jdk.JDKTransport;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips to an in-process {@link AgentServer} over a real unix socket, with each transport: listing identities,
+ * which measures request decoding and answer generation, and signing with each key type.
+ * The JDK transport needs Java 16 or later.
+ * Ed25519 is not benchmarked as the agent of sshd 1.0.0 does not support it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AgentServerProtocolBenchmark {
+
+    /**
+     * An agent served over a transport.
+     */
+    public abstract static class Agent {
+        private File temp;
+
+        AgentServer server;
+
+        String socket;
+
+        void start(String transport) throws Exception {
+            temp = Files.createTempDirectory("agent-bench").toFile();
+            server = new AgentServer(new LocalAgent(), temp,
+                    "JDK".equals(transport) ? JDKTransport.INSTANCE : AgentServer.JNRTransport.INSTANCE);
+            socket = server.start();
+        }
+
+        void stop() {
+            server.close();
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * An agent holding some EC keys, to list.
+     */
+    @State(Scope.Benchmark)
+    public static class Listing extends Agent {
+
+        @Param({"JNR", "JDK"})
+        public String transport;
+
+        /**
+         * The number of identities in the agent.
+         */
+        @Param({"1", "16"})
+        public int identities;
+
+        @Setup
+        public void setUp() throws Exception {
+            start(transport);
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(256);
+            for (int i = 0; i < identities; i++) {
+                server.getAgent().addIdentity(generator.generateKeyPair(), "benchmark-" + i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            stop();
+        }
+    }
+
+    /**
+     * An agent holding a key to sign with.
+     */
+    @State(Scope.Benchmark)
+    public static class Signing extends Agent {
+
+        @Param({"JNR", "JDK"})
+        public String transport;
+
+        @Param({"RSA-2048", "RSA-4096", "EC-256", "EC-384"})
+        public String key;
+
+        private byte[] blob;
+
+        private byte[] data;
+
+        @Setup
+        public void setUp() throws Exception {
+            start(transport);
+            String[] spec = key.split("-");
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(spec[0]);
+            generator.initialize(Integer.parseInt(spec[1]));
+            KeyPair keyPair = generator.generateKeyPair();
+            server.getAgent().addIdentity(keyPair, "benchmark");
+            blob = SSHPublicKeys.encode(keyPair.getPublic());
+            data = new byte[200];
+            new Random(42).nextBytes(data);
+        }
+
+        @TearDown
+        public void tearDown() {
+            stop();
+        }
+    }
+
+    /**
+     * A connection per benchmark thread, as an ssh client keeps its connection for the whole authentication.
+     */
+    public abstract static class Client {
+        AgentClient client;
+
+        void connect(Agent agent) throws Exception {
+            client = AgentClient.connect(agent.socket);
+        }
+
+        void close() throws Exception {
+            client.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ListingClient extends Client {
+        @Setup
+        public void setUp(Listing agent) throws Exception {
+            connect(agent);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SigningClient extends Client {
+        @Setup
+        public void setUp(Signing agent) throws Exception {
+            connect(agent);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            close();
+        }
+    }
+
+    @Benchmark
+    public List<byte[]> requestIdentities(ListingClient client) throws Exception {
+        return client.client.requestIdentities();
+    }
+
+    @Benchmark
+    public byte[] sign(Signing agent, SigningClient client) throws Exception {
+        return client.client.sign(agent.blob, agent.data);
+    }
+}
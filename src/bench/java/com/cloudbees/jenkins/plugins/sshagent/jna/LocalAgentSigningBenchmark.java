@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing throughput of {@link LocalAgent} with each {@link LocalAgent.Randomness}, from one thread and from many
+ * threads sharing the agent. With {@link LocalAgent.Randomness#DEFAULT} the threads contend on the JVM default
+ * {@link java.security.SecureRandom}; the other strategies should scale with the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LocalAgentSigningBenchmark {
+
+    @Param({"DEFAULT", "THREAD_LOCAL", "RFC6979"})
+    public LocalAgent.Randomness randomness;
+
+    @Param({"EC", "DSA"})
+    public String algorithm;
+
+    private LocalAgent agent;
+
+    private PublicKey key;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize("EC".equals(algorithm) ? 256 : 1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        agent = new LocalAgent(randomness);
+        agent.addIdentity(keyPair, "benchmark");
+        key = keyPair.getPublic();
+        // the size of an SSH session id plus the user authentication request
+        data = new byte[200];
+        new Random(42).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        agent.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] signOneThread() throws Exception {
+        return agent.sign(key, data);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public byte[] signEightThreads() throws Exception {
+        return agent.sign(key, data);
+    }
+}
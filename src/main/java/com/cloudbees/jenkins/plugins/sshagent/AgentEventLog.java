@@ -0,0 +1,217 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * An optional machine readable log of the agent lifecycle, one JSON object per line, written to
+ * {@code JENKINS_HOME/logs/ssh-agent/events.jsonl} when {@link SSHAgentConfiguration#isEventLog()}.
+ * Events are queued by the build threads and appended in batches by a task scheduled with the first event of each
+ * batch; the file is rotated when it grows too large. Events are dropped rather than block a build when the queue is
+ * full.
+ */
+@Restricted(NoExternalUse.class)
+public final class AgentEventLog {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentEventLog.class.getName());
+
+    /**
+     * The size, in bytes, above which the log is rotated. Not final, for tests.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "lowered by tests")
+    static long MAX_SIZE = Long.getLong(AgentEventLog.class.getName() + ".MAX_SIZE", 10 * 1024 * 1024);
+
+    /**
+     * The number of rotated logs kept.
+     */
+    static final int MAX_FILES = Math.max(1, Integer.getInteger(AgentEventLog.class.getName() + ".MAX_FILES", 5));
+
+    /**
+     * How long, in milliseconds, the first event of a batch is queued before the batch is written.
+     */
+    private static final long FLUSH_INTERVAL = Long.getLong(AgentEventLog.class.getName() + ".FLUSH_INTERVAL", 1000);
+
+    /**
+     * The number of events queued, above which events are dropped. Not final, for tests.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "lowered by tests")
+    static int QUEUE_SIZE = Integer.getInteger(AgentEventLog.class.getName() + ".QUEUE_SIZE", 10000);
+
+    private static final BlockingQueue<String> QUEUE = new LinkedBlockingQueue<String>();
+
+    private static final AtomicBoolean FLUSH_PENDING = new AtomicBoolean();
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private AgentEventLog() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Checks whether events are logged.
+     *
+     * @return {@code true} if enabled in the global configuration.
+     */
+    public static boolean isEnabled() {
+        SSHAgentConfiguration config = SSHAgentConfiguration.get();
+        return config != null && config.isEventLog();
+    }
+
+    /**
+     * Logs an event, if enabled.
+     *
+     * @param event  the event name, e.g. {@code start}.
+     * @param node   the node, or {@code null} if unknown.
+     * @param build  the {@link hudson.model.Run#getExternalizableId()} of the build, or {@code null} if unknown.
+     * @param fields the fields specific to the event, or {@code null}.
+     */
+    public static void log(@Nonnull String event, @CheckForNull String node, @CheckForNull String build,
+                           @CheckForNull JSONObject fields) {
+        if (!isEnabled()) {
+            return;
+        }
+        JSONObject line = new JSONObject();
+        line.put("time", System.currentTimeMillis());
+        line.put("event", event);
+        if (node != null) {
+            line.put("node", node);
+        }
+        if (build != null) {
+            line.put("build", build);
+        }
+        if (fields != null) {
+            line.putAll(fields);
+        }
+        if (QUEUE.size() >= QUEUE_SIZE || !QUEUE.offer(line.toString())) {
+            DROPPED.incrementAndGet();
+        }
+        if (FLUSH_PENDING.compareAndSet(false, true)) {
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    FLUSH_PENDING.set(false);
+                    flush();
+                }
+            }, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the queued events.
+     */
+    static synchronized void flush() {
+        List<String> batch = new ArrayList<String>();
+        QUEUE.drainTo(batch);
+        long dropped = DROPPED.getAndSet(0);
+        if (batch.isEmpty() && dropped == 0) {
+            return;
+        }
+        File file = getFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            rotate(file);
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+                if (dropped > 0) {
+                    JSONObject line = new JSONObject();
+                    line.put("time", System.currentTimeMillis());
+                    line.put("event", "dropped");
+                    line.put("count", dropped);
+                    w.write(line.toString());
+                    w.write('\n');
+                }
+                for (String line : batch) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write " + batch.size() + " events to " + file, e);
+        }
+    }
+
+    @CheckForNull
+    static File getFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins == null ? null : new File(jenkins.getRootDir(), "logs/ssh-agent/events.jsonl");
+    }
+
+    /**
+     * Moves {@code events.jsonl} to {@code events.jsonl.1}, and so on, once it is too large.
+     */
+    private static void rotate(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        if (file.length() < MAX_SIZE) {
+            return;
+        }
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            File from = new File(dir, file.getName() + "." + i);
+            if (from.exists()) {
+                File to = new File(dir, file.getName() + "." + (i + 1));
+                if (to.exists() && !to.delete()) {
+                    throw new IOException("Could not delete " + to);
+                }
+                if (!from.renameTo(to)) {
+                    throw new IOException("Could not rename " + from);
+                }
+            }
+        }
+        File first = new File(dir, file.getName() + ".1");
+        if (first.exists() && !first.delete()) {
+            throw new IOException("Could not delete " + first);
+        }
+        if (!file.renameTo(first)) {
+            throw new IOException("Could not rename " + file);
+        }
+    }
+}
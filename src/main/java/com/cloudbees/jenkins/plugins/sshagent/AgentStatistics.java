@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * What the clients of an agent asked of it, collected on the node and sent to the controller when the agent stops.
+ * Must only depend on the JDK as it is used on the remote agents.
+ */
+@Restricted(NoExternalUse.class)
+public final class AgentStatistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long connections;
+    private final long errors;
+    private final long bytesIn;
+    private final long bytesOut;
+    /**
+     * The number of requests by message type name.
+     */
+    private final Map<String, Long> requests;
+    /**
+     * The number of signatures by key fingerprint.
+     */
+    private final Map<String, Long> signatures;
+    private final long signP50Micros;
+    private final long signP99Micros;
+    private final long signMaxMicros;
+
+    public AgentStatistics(long connections, long errors, long bytesIn, long bytesOut,
+                           @Nonnull Map<String, Long> requests, @Nonnull Map<String, Long> signatures,
+                           long signP50Micros, long signP99Micros, long signMaxMicros) {
+        this.connections = connections;
+        this.errors = errors;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.requests = new TreeMap<String, Long>(requests);
+        this.signatures = new TreeMap<String, Long>(signatures);
+        this.signP50Micros = signP50Micros;
+        this.signP99Micros = signP99Micros;
+        this.signMaxMicros = signMaxMicros;
+    }
+
+    /**
+     * Names an agent protocol message type.
+     *
+     * @param type the message type.
+     * @return the name used as key of {@link #getRequests()}.
+     */
+    @Nonnull
+    public static String requestName(int type) {
+        switch (type) {
+            case 1:
+                return "request-rsa-identities";
+            case 11:
+                return "request-identities";
+            case 13:
+                return "sign";
+            case 17:
+                return "add-identity";
+            case 18:
+                return "remove-identity";
+            case 19:
+                return "remove-all-identities";
+            default:
+                return "type-" + type;
+        }
+    }
+
+    public long getConnections() {
+        return connections;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Nonnull
+    public Map<String, Long> getRequests() {
+        return Collections.unmodifiableMap(requests);
+    }
+
+    @Nonnull
+    public Map<String, Long> getSignatures() {
+        return Collections.unmodifiableMap(signatures);
+    }
+
+    /**
+     * Gets the total number of signatures.
+     *
+     * @return the number of signatures made with any key.
+     */
+    public long getSignatureCount() {
+        long total = 0;
+        for (long count : signatures.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long getSignP50Micros() {
+        return signP50Micros;
+    }
+
+    public long getSignP99Micros() {
+        return signP99Micros;
+    }
+
+    public long getSignMaxMicros() {
+        return signMaxMicros;
+    }
+
+    @Override
+    public String toString() {
+        long requestCount = 0;
+        for (long count : requests.values()) {
+            requestCount += count;
+        }
+        String summary = String.format(Locale.ENGLISH, "%d connections, %d requests, %d errors, %d bytes in, %d bytes out",
+                connections, requestCount, errors, bytesIn, bytesOut);
+        long signed = getSignatureCount();
+        if (signed > 0) {
+            summary += String.format(Locale.ENGLISH, ", %d signatures with %d keys (p50 %.1fms, p99 %.1fms, max %.1fms)",
+                    signed, signatures.size(), signP50Micros / 1000.0, signP99Micros / 1000.0, signMaxMicros / 1000.0);
+        }
+        return summary;
+    }
+}
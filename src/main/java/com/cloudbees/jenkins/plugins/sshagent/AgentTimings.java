@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * How long each phase of setting up and tearing down one agent took: resolving the credentials, probing each
+ * {@link RemoteAgentFactory}, starting the agent, loading each identity and stopping the agent; together with the
+ * {@link AgentStatistics} of the agent. Kept on the build by {@link AgentTimingsAction}.
+ */
+@Restricted(NoExternalUse.class)
+public final class AgentTimings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CREDENTIALS = "credentials";
+    public static final String PROBE = "probe";
+    public static final String START = "start";
+    public static final String IDENTITY = "identity";
+    public static final String STOP = "stop";
+
+    private static final Logger LOGGER = Logger.getLogger(AgentTimings.class.getName());
+
+    /**
+     * When {@code true}, the timings are summarized in the build log when the agent stops.
+     */
+    private static final boolean PRINT = Boolean.getBoolean(AgentTimings.class.getName() + ".PRINT");
+
+    /**
+     * The node the agent runs on, or {@code null} if unknown.
+     */
+    @CheckForNull
+    private final String node;
+
+    /**
+     * The {@link hudson.model.Run#getExternalizableId()} of the build, or {@code null} if unknown.
+     */
+    @CheckForNull
+    private final String build;
+
+    /**
+     * The class name of the factory that started the agent, once started.
+     */
+    @CheckForNull
+    private String factory;
+
+    /**
+     * When the setup started, in milliseconds since the epoch.
+     */
+    private final long timestamp;
+
+    /**
+     * When the setup started, as {@link System#nanoTime()}, to place the phases in time while recording.
+     * Derived from {@link #timestamp} when read back, as the clock of another JVM means nothing here.
+     */
+    private transient long startNanos;
+
+    /**
+     * The phases in the order they completed.
+     */
+    private final List<Phase> phases = new ArrayList<Phase>();
+
+    /**
+     * What the clients asked of the agent, collected when it stops, if the agent keeps track.
+     */
+    @CheckForNull
+    private AgentStatistics statistics;
+
+    public AgentTimings(@CheckForNull String node) {
+        this(node, null);
+    }
+
+    public AgentTimings(@CheckForNull String node, @CheckForNull String build) {
+        this.node = node;
+        this.build = build;
+        this.timestamp = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    private Object readResolve() {
+        startNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestamp);
+        return this;
+    }
+
+    @CheckForNull
+    public String getNode() {
+        return node;
+    }
+
+    @CheckForNull
+    public String getBuild() {
+        return build;
+    }
+
+    @CheckForNull
+    public synchronized String getFactory() {
+        return factory;
+    }
+
+    public synchronized void setFactory(@Nonnull RemoteAgentFactory factory) {
+        this.factory = factory.getClass().getName();
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Records a phase, and logs it to the {@link AgentEventLog}. Safe to call from the threads probing the factories
+     * concurrently.
+     *
+     * @param name   one of the phase names defined here.
+     * @param detail what the phase applied to, e.g. the factory probed or the identity loaded.
+     * @param nanos  how long the phase took.
+     */
+    public void record(@Nonnull String name, @CheckForNull String detail, long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        long endMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        synchronized (this) {
+            phases.add(new Phase(name, detail, micros, endMicros));
+        }
+        if (AgentEventLog.isEnabled()) {
+            JSONObject fields = new JSONObject();
+            if (detail != null) {
+                fields.put("detail", detail);
+            }
+            fields.put("micros", micros);
+            AgentEventLog.log(name, node, build, fields);
+        }
+    }
+
+    /**
+     * Collects the statistics of an agent about to stop. Failing to do so does not prevent stopping the agent.
+     *
+     * @param agent the agent.
+     */
+    public void collect(@Nonnull RemoteAgent agent) throws InterruptedException {
+        AgentStatistics statistics;
+        try {
+            statistics = agent.getStatistics();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not collect the statistics of " + agent.getSocket(), e);
+            return;
+        }
+        synchronized (this) {
+            this.statistics = statistics;
+        }
+    }
+
+    @CheckForNull
+    public synchronized AgentStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Nonnull
+    public synchronized List<Phase> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<Phase>(phases));
+    }
+
+    /**
+     * Measures the wall-clock time taken by the phases of a kind, from the start of the first one to the end of the
+     * last one, so that phases run concurrently, such as probes, are not counted several times.
+     *
+     * @param name the phase name.
+     * @return the duration in microseconds, or {@code 0} if there is no such phase.
+     */
+    public synchronized long getSpanMicros(@Nonnull String name) {
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (Phase phase : phases) {
+            if (name.equals(phase.name)) {
+                start = Math.min(start, phase.endMicros - phase.micros);
+                end = Math.max(end, phase.endMicros);
+            }
+        }
+        return end < start ? 0 : end - start;
+    }
+
+    /**
+     * Sums the phases of a kind.
+     *
+     * @param name the phase name, or {@code null} for all the phases.
+     * @return the total duration in microseconds.
+     */
+    public synchronized long getTotalMicros(@CheckForNull String name) {
+        long total = 0;
+        for (Phase phase : phases) {
+            if (name == null || name.equals(phase.name)) {
+                total += phase.micros;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Prints the timings as one line, if enabled.
+     *
+     * @param listener the build listener.
+     */
+    public void print(@Nonnull TaskListener listener) {
+        if (PRINT) {
+            listener.getLogger().println(Messages.AgentTimings_Summary(toString()));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (Phase phase : phases) {
+            if (buf.length() > 0) {
+                buf.append(", ");
+            }
+            buf.append(phase);
+        }
+        buf.append("; total ").append(millis(getTotalMicros(null))).append("ms");
+        if (statistics != null) {
+            buf.append("; ").append(statistics);
+        }
+        return buf.toString();
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ENGLISH, "%.1f", micros / 1000.0);
+    }
+
+    /**
+     * One timed phase.
+     */
+    public static final class Phase implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        @CheckForNull
+        private final String detail;
+        private final long micros;
+        /**
+         * When the phase ended, in microseconds since the setup started.
+         */
+        private final long endMicros;
+
+        Phase(@Nonnull String name, @CheckForNull String detail, long micros, long endMicros) {
+            this.name = name;
+            this.detail = detail;
+            this.micros = micros;
+            this.endMicros = endMicros;
+        }
+
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        @CheckForNull
+        public String getDetail() {
+            return detail;
+        }
+
+        public long getMicros() {
+            return micros;
+        }
+
+        @Override
+        public String toString() {
+            return name + (detail == null ? "" : " " + detail) + " " + millis(micros) + "ms";
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The {@link AgentTimings} of the agents started by a build, in the order they were started.
+ * Saved with the build, so that setup overhead can be aggregated across builds.
+ * <p>
+ * Only blocks that start an agent add timings. A nested block that borrows the agent of its enclosing block adds
+ * none, and the identities it loads into that agent are not timed. Blocks that join a
+ * {@linkplain SSHAgentStep#isShared() shared} agent add none either; the block that started it records its setup, but
+ * not its stop, which happens when the last block using it finishes.
+ */
+@Restricted(NoExternalUse.class)
+public class AgentTimingsAction extends InvisibleAction {
+
+    private final List<AgentTimings> agents = new ArrayList<AgentTimings>();
+
+    /**
+     * Adds the timings of an agent to a build.
+     *
+     * @param run     the build.
+     * @param timings the timings, which may still be recorded to after being added.
+     */
+    public static void add(@Nonnull Run<?, ?> run, @Nonnull AgentTimings timings) {
+        AgentTimingsAction action;
+        synchronized (AgentTimingsAction.class) {
+            action = run.getAction(AgentTimingsAction.class);
+            if (action == null) {
+                action = new AgentTimingsAction();
+                run.addAction(action);
+            }
+        }
+        synchronized (action) {
+            action.agents.add(timings);
+        }
+    }
+
+    @Nonnull
+    public synchronized List<AgentTimings> getAgents() {
+        return Collections.unmodifiableList(new ArrayList<AgentTimings>(agents));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps a short history of how long each {@link RemoteAgentFactory} took to start an agent on each node, and when it
+ * last failed, so that the fastest working factory can be tried first.
+ * Only the factory that actually starts the agent gets timed, so every {@link #EXPLORE_INTERVAL}th start on a node
+ * tries a factory without enough history first, until all the working factories on that node can be compared.
+ */
+@Restricted(NoExternalUse.class)
+public final class FactoryStatistics {
+
+    /**
+     * The number of start times remembered per node and factory.
+     */
+    private static final int HISTORY = 5;
+
+    /**
+     * The number of start times needed before a factory is ranked by its speed.
+     */
+    private static final int MIN_SAMPLES = 3;
+
+    /**
+     * How many starts on a node between two tries of a factory without enough history, or 0 to only ever try them
+     * once the factories with enough history have failed.
+     */
+    static final int EXPLORE_INTERVAL =
+            Integer.getInteger(FactoryStatistics.class.getName() + ".EXPLORE_INTERVAL", 20);
+
+    /**
+     * The number of nodes remembered, so that ephemeral cloud nodes do not accumulate.
+     */
+    private static final int MAX_NODES = 1000;
+
+    /**
+     * How long a factory that failed on a node is tried only after all the others.
+     */
+    private static final long COOL_DOWN_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(FactoryStatistics.class.getName() + ".COOL_DOWN", TimeUnit.MINUTES.toSeconds(10)));
+
+    /**
+     * The history of each node (keyed by node name), least recently used first.
+     */
+    private static final Map<String, NodeHistory> NODES =
+            new LinkedHashMap<String, NodeHistory>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, NodeHistory> eldest) {
+                    return size() > MAX_NODES;
+                }
+            };
+
+    private FactoryStatistics() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Records that a factory started an agent.
+     *
+     * @param nodeName the node.
+     * @param factory  the factory.
+     * @param nanos    how long {@link RemoteAgentFactory#start} took.
+     */
+    public static void recordSuccess(@Nonnull String nodeName, @Nonnull RemoteAgentFactory factory, long nanos) {
+        synchronized (NODES) {
+            History history = history(nodeName, factory);
+            history.samples[history.next] = nanos;
+            history.next = (history.next + 1) % HISTORY;
+            history.count = Math.min(history.count + 1, HISTORY);
+            history.failedAt = 0;
+            NODES.get(nodeName).starts++;
+        }
+    }
+
+    /**
+     * Records that a factory was not supported or failed to start an agent.
+     *
+     * @param nodeName the node.
+     * @param factory  the factory.
+     */
+    public static void recordFailure(@Nonnull String nodeName, @Nonnull RemoteAgentFactory factory) {
+        synchronized (NODES) {
+            history(nodeName, factory).failedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Checks if any factory was tried on a node.
+     *
+     * @param nodeName the node.
+     * @return {@code true} if {@link #rank(String, List)} has something to go by.
+     */
+    public static boolean hasHistory(@Nonnull String nodeName) {
+        synchronized (NODES) {
+            return NODES.containsKey(nodeName);
+        }
+    }
+
+    /**
+     * Orders factories for a node: first those with enough history, fastest first, then the others in their original
+     * order, and last those that failed recently. Every {@link #EXPLORE_INTERVAL}th start, the first factory without
+     * enough history that did not fail recently goes first instead, so that it gets timed too.
+     *
+     * @param nodeName  the node.
+     * @param factories the factories in {@link hudson.ExtensionList} order.
+     * @return the factories in the order they should be tried.
+     */
+    @Nonnull
+    public static List<RemoteAgentFactory> rank(@Nonnull String nodeName, @Nonnull List<RemoteAgentFactory> factories) {
+        final Map<RemoteAgentFactory, Long> ranked = new HashMap<RemoteAgentFactory, Long>();
+        List<RemoteAgentFactory> fast = new ArrayList<RemoteAgentFactory>();
+        List<RemoteAgentFactory> unknown = new ArrayList<RemoteAgentFactory>();
+        List<RemoteAgentFactory> failed = new ArrayList<RemoteAgentFactory>();
+        long now = System.currentTimeMillis();
+        boolean explore;
+        synchronized (NODES) {
+            NodeHistory node = NODES.get(nodeName);
+            explore = node != null && EXPLORE_INTERVAL > 0 && node.starts > 0 && node.starts % EXPLORE_INTERVAL == 0;
+            for (RemoteAgentFactory factory : factories) {
+                History history = node == null ? null : node.factories.get(factory.getClass().getName());
+                if (history == null) {
+                    unknown.add(factory);
+                } else if (history.failedAt != 0 && now - history.failedAt < COOL_DOWN_MILLIS) {
+                    failed.add(factory);
+                } else if (history.count >= MIN_SAMPLES) {
+                    ranked.put(factory, history.median());
+                    fast.add(factory);
+                } else {
+                    unknown.add(factory);
+                }
+            }
+        }
+        Collections.sort(fast, new Comparator<RemoteAgentFactory>() {
+            @Override
+            public int compare(RemoteAgentFactory o1, RemoteAgentFactory o2) {
+                return Long.compare(ranked.get(o1), ranked.get(o2));
+            }
+        });
+        List<RemoteAgentFactory> result = new ArrayList<RemoteAgentFactory>(factories.size());
+        if (explore && !fast.isEmpty() && !unknown.isEmpty()) {
+            result.add(unknown.remove(0));
+        }
+        result.addAll(fast);
+        result.addAll(unknown);
+        result.addAll(failed);
+        return result;
+    }
+
+    private static History history(String nodeName, RemoteAgentFactory factory) {
+        NodeHistory node = NODES.get(nodeName);
+        if (node == null) {
+            node = new NodeHistory();
+            NODES.put(nodeName, node);
+        }
+        History history = node.factories.get(factory.getClass().getName());
+        if (history == null) {
+            history = new History();
+            node.factories.put(factory.getClass().getName(), history);
+        }
+        return history;
+    }
+
+    /**
+     * The recent history of the factories (keyed by class name) on a node.
+     */
+    private static final class NodeHistory {
+        private final Map<String, History> factories = new HashMap<String, History>();
+        private int starts;
+    }
+
+    /**
+     * The recent history of a factory on a node.
+     */
+    private static final class History {
+        private final long[] samples = new long[HISTORY];
+        private int next;
+        private int count;
+        private long failedAt;
+
+        long median() {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[count / 2];
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.XStream2;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The {@link AgentTimings} of the most recent agents, across all jobs, in a fixed size ring buffer filled as builds
+ * complete, so that reporting never has to load builds.
+ * Optionally saved to {@code JENKINS_HOME} when {@link SSHAgentConfiguration#isPersistOverhead()}.
+ */
+@Restricted(NoExternalUse.class)
+public final class OverheadHistory {
+
+    private static final Logger LOGGER = Logger.getLogger(OverheadHistory.class.getName());
+
+    /**
+     * The number of agents remembered.
+     */
+    static final int CAPACITY = Math.max(1,
+            Integer.getInteger(OverheadHistory.class.getName() + ".CAPACITY", 2000));
+
+    /**
+     * How long, in seconds, changes are batched before being saved.
+     */
+    private static final long SAVE_DELAY = Long.getLong(OverheadHistory.class.getName() + ".SAVE_DELAY", 60);
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("entry", Entry.class);
+    }
+
+    /**
+     * The entries, the oldest at {@link #next} once the buffer is full.
+     */
+    private static final Entry[] ENTRIES = new Entry[CAPACITY];
+
+    private static int next;
+
+    private static int size;
+
+    private static final AtomicBoolean SAVE_PENDING = new AtomicBoolean();
+
+    private OverheadHistory() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Remembers the agents of a completed build.
+     *
+     * @param run the build.
+     */
+    public static void record(@Nonnull Run<?, ?> run) {
+        AgentTimingsAction action = run.getAction(AgentTimingsAction.class);
+        if (action == null) {
+            return;
+        }
+        List<AgentTimings> agents = action.getAgents();
+        if (agents.isEmpty()) {
+            return;
+        }
+        for (AgentTimings timings : agents) {
+            add(new Entry(run.getParent().getFullName(), run.getNumber(), timings));
+        }
+        if (isPersisted() && SAVE_PENDING.compareAndSet(false, true)) {
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    SAVE_PENDING.set(false);
+                    save();
+                }
+            }, SAVE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    static synchronized void add(@Nonnull Entry entry) {
+        ENTRIES[next] = entry;
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+    }
+
+    /**
+     * Gets the remembered agents.
+     *
+     * @return the entries, oldest first.
+     */
+    @Nonnull
+    public static synchronized List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(ENTRIES[(next - size + i + CAPACITY) % CAPACITY]);
+        }
+        return result;
+    }
+
+    @CheckForNull
+    private static XmlFile getFile() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins == null ? null : new XmlFile(XSTREAM, new File(jenkins.getRootDir(), OverheadHistory.class.getName() + ".xml"));
+    }
+
+    static void save() {
+        XmlFile file = getFile();
+        if (file == null || !isPersisted()) {
+            return;
+        }
+        try {
+            file.write(new ArrayList<Entry>(getEntries()));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save " + file, e);
+        }
+    }
+
+    private static boolean isPersisted() {
+        SSHAgentConfiguration config = SSHAgentConfiguration.get();
+        return config != null && config.isPersistOverhead();
+    }
+
+    /**
+     * Loads the entries saved before a restart, if any and if they are still to be kept. Entries saved before
+     * {@link SSHAgentConfiguration#isPersistOverhead()} was turned off are deleted instead.
+     */
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void load() {
+        XmlFile file = getFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        if (!isPersisted()) {
+            file.delete();
+            return;
+        }
+        try {
+            Object saved = file.read();
+            if (saved instanceof List) {
+                for (Object entry : (List<?>) saved) {
+                    if (entry instanceof Entry) {
+                        add((Entry) entry);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not load " + file, e);
+        }
+    }
+
+    /**
+     * Clears the remembered agents, leaving the saved ones.
+     */
+    static synchronized void forget() {
+        Arrays.fill(ENTRIES, null);
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Clears the remembered agents, and the saved ones.
+     */
+    public static void clear() {
+        forget();
+        XmlFile file = getFile();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * The overhead of one agent, without the detail of {@link AgentTimings}.
+     */
+    public static final class Entry {
+        private final long timestamp;
+        private final String job;
+        private final int build;
+        @CheckForNull
+        private final String node;
+        @CheckForNull
+        private final String factory;
+        /**
+         * The time spent resolving credentials, probing, starting and loading identities.
+         */
+        private final long setupMicros;
+        /**
+         * The wall-clock time spent probing, however many providers were probed concurrently.
+         */
+        private final long probeMicros;
+        private final long stopMicros;
+        private final long signatures;
+
+        Entry(@Nonnull String job, int build, @Nonnull AgentTimings timings) {
+            this.timestamp = timings.getTimestamp();
+            this.job = job;
+            this.build = build;
+            this.node = timings.getNode();
+            this.factory = timings.getFactory();
+            this.stopMicros = timings.getTotalMicros(AgentTimings.STOP);
+            this.probeMicros = timings.getSpanMicros(AgentTimings.PROBE);
+            this.setupMicros = timings.getTotalMicros(null) - stopMicros
+                    - timings.getTotalMicros(AgentTimings.PROBE) + probeMicros;
+            AgentStatistics statistics = timings.getStatistics();
+            this.signatures = statistics == null ? 0 : statistics.getSignatureCount();
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Nonnull
+        public String getJob() {
+            return job;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        @CheckForNull
+        public String getNode() {
+            return node;
+        }
+
+        @CheckForNull
+        public String getFactory() {
+            return factory;
+        }
+
+        public long getSetupMicros() {
+            return setupMicros;
+        }
+
+        public long getProbeMicros() {
+            return probeMicros;
+        }
+
+        public long getStopMicros() {
+            return stopMicros;
+        }
+
+        public long getSignatures() {
+            return signatures;
+        }
+    }
+
+    /**
+     * Records the agents of builds as they complete.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            record(run);
+        }
+    }
+}
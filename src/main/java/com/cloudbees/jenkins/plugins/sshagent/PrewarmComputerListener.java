@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Gets nodes ready for their first {@code sshagent} when they come online, if enabled in
+ * {@link SSHAgentConfiguration}: registers BouncyCastle, and starts and stops an agent with the provider that
+ * {@link RemoteAgents} picks for the node, which loads its classes and native support and gives
+ * {@link FactoryStatistics} a first start to go by.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class PrewarmComputerListener extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(PrewarmComputerListener.class.getName());
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOnline(final Computer c, TaskListener listener) {
+        SSHAgentConfiguration config = SSHAgentConfiguration.get();
+        if (config == null || !config.isPrewarm() || !Boolean.TRUE.equals(c.isUnix())) {
+            return;
+        }
+        final VirtualChannel channel = c.getChannel();
+        final Node node = c.getNode();
+        if (channel == null || node == null) {
+            return;
+        }
+        // do not hold up the launch of the node, and do not write to its launch log once it is online
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    RemoteHelper.registerBouncyCastle(channel, TaskListener.NULL);
+                    RemoteAgents.Started started = RemoteAgents.start(node.createLauncher(TaskListener.NULL),
+                            TaskListener.NULL, null, node);
+                    started.getAgent().stop();
+                    LOGGER.log(Level.FINE, "Warmed up {0} on {1} in {2}ms", new Object[]{
+                            started.getFactory().getDisplayName(), c.getName(), (System.nanoTime() - start) / 1000000});
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Could not warm up ssh-agent on " + c.getName(), e);
+                }
+            }
+        });
+    }
+}
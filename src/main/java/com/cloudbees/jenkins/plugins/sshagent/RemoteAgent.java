@@ -25,6 +25,7 @@
 package com.cloudbees.jenkins.plugins.sshagent;
 
 import java.io.IOException;
+import javax.annotation.CheckForNull;
 
 /**
  * Need an interface in order to export the object from the channel.
@@ -47,6 +48,28 @@ public interface RemoteAgent {
      */
     void addIdentity(String privateKey, String passphrase, String comment) throws IOException, InterruptedException;
 
+    /**
+     * Removes an identity previously added with {@link #addIdentity(String, String, String)}.
+     *
+     * @param privateKey the private key.
+     * @param passphrase the passphrase or {@code null}.
+     * @param comment    the comment the key was added with.
+     * @throws java.io.IOException if the key could not be read or was not held by the agent.
+     * @since 1.18
+     */
+    void removeIdentity(String privateKey, String passphrase, String comment) throws IOException, InterruptedException;
+
+    /**
+     * Gets what the clients asked of the agent so far, if the implementation keeps track.
+     *
+     * @return the statistics, or {@code null} if not available.
+     * @since 1.18
+     */
+    @CheckForNull
+    default AgentStatistics getStatistics() throws IOException, InterruptedException {
+        return null;
+    }
+
     /**
      * Stops the agent.
      */
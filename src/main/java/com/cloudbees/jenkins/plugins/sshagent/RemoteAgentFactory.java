@@ -72,4 +72,21 @@ public abstract class RemoteAgentFactory implements ExtensionPoint {
             throw new AbstractMethodError("you must implement the start method");
         }
     }
+
+    /**
+     * Restarts a ssh-agent after a controller restart, reusing the socket of the agent this factory had started
+     * before, so that processes which are still running keep a valid {@code SSH_AUTH_SOCK}.
+     * The default implementation starts an agent on a new socket.
+     *
+     * @param launcher the launcher on which to start a ssh-agent.
+     * @param listener a listener for any diagnostics.
+     * @param temp a temporary directory to use; null if unspecified
+     * @param socket the socket of the previous agent.
+     * @return the agent, check {@link RemoteAgent#getSocket()} for the socket actually used.
+     * @throws Throwable if the agent cannot be started.
+     * @since 1.18
+     */
+    public RemoteAgent resume(Launcher launcher, TaskListener listener, @CheckForNull FilePath temp, String socket) throws Throwable {
+        return start(launcher, listener, temp);
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.remoting.Channel;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.security.MasterToSlaveCallable;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A reference to an agent running on a node, sent back to the controller instead of an exported proxy.
+ * The agent stays in a registry on the node until {@link #stop()}, so nothing is left behind in the export table of
+ * the channel however many builds run on the node.
+ */
+@Restricted(NoExternalUse.class)
+public final class RemoteAgentHandle implements RemoteAgent, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(RemoteAgentHandle.class.getName());
+
+    /**
+     * The running agents of this node, by ID.
+     */
+    private static final Map<String, RemoteAgent> AGENTS = new ConcurrentHashMap<String, RemoteAgent>();
+
+    /**
+     * The IDs of the agents started through each channel, so that they can be stopped when it closes.
+     */
+    private static final Map<Channel, Set<String>> CHANNELS = new WeakHashMap<Channel, Set<String>>();
+
+    private final String id;
+
+    private final String socket;
+
+    /**
+     * The channel to the node, set when the handle reaches the controller.
+     */
+    private transient Channel channel;
+
+    private RemoteAgentHandle(String id, String socket) {
+        this.id = id;
+        this.socket = socket;
+    }
+
+    /**
+     * Registers an agent started on this node.
+     *
+     * @param channel the channel to the controller.
+     * @param agent   the agent.
+     * @return the handle to return to the controller.
+     */
+    @Nonnull
+    public static RemoteAgent register(@Nonnull Channel channel, @Nonnull RemoteAgent agent) {
+        String id = UUID.randomUUID().toString();
+        AGENTS.put(id, agent);
+        synchronized (CHANNELS) {
+            Set<String> ids = CHANNELS.get(channel);
+            if (ids == null) {
+                ids = new HashSet<String>();
+                CHANNELS.put(channel, ids);
+                channel.addListener(new Channel.Listener() {
+                    @Override
+                    public void onClosed(Channel channel, IOException cause) {
+                        stopAll(channel);
+                    }
+                });
+            }
+            ids.add(id);
+        }
+        return new RemoteAgentHandle(id, agent.getSocket());
+    }
+
+    /**
+     * Gets the number of agents running on this node.
+     *
+     * @return the number of registered agents.
+     */
+    public static int size() {
+        return AGENTS.size();
+    }
+
+    /**
+     * Gets the number of agents tracked for the channels they were started through.
+     *
+     * @return the number of agents to stop when their channel closes.
+     */
+    static int tracked() {
+        int tracked = 0;
+        synchronized (CHANNELS) {
+            for (Set<String> ids : CHANNELS.values()) {
+                tracked += ids.size();
+            }
+        }
+        return tracked;
+    }
+
+    private static void stopAll(Channel channel) {
+        Set<String> ids;
+        synchronized (CHANNELS) {
+            ids = CHANNELS.remove(channel);
+        }
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            RemoteAgent agent = AGENTS.remove(id);
+            if (agent != null) {
+                try {
+                    agent.stop();
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Could not stop ssh-agent " + id, e);
+                }
+            }
+        }
+    }
+
+    @CheckForNull
+    private static RemoteAgent release(String id) {
+        synchronized (CHANNELS) {
+            for (Set<String> ids : CHANNELS.values()) {
+                ids.remove(id);
+            }
+        }
+        return AGENTS.remove(id);
+    }
+
+    private static RemoteAgent lookup(String id) throws IOException {
+        RemoteAgent agent = AGENTS.get(id);
+        if (agent == null) {
+            throw new IOException("No ssh-agent " + id + " on this node");
+        }
+        return agent;
+    }
+
+    private Object readResolve() {
+        channel = Channel.current();
+        return this;
+    }
+
+    private Channel channel() throws IOException {
+        if (channel == null) {
+            throw new IOException("Not connected to ssh-agent " + id);
+        }
+        return channel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSocket() {
+        return socket;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addIdentity(String privateKey, String passphrase, String comment) throws IOException, InterruptedException {
+        channel().call(new AddIdentity(id, privateKey, passphrase, comment));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeIdentity(String privateKey, String passphrase, String comment) throws IOException, InterruptedException {
+        channel().call(new RemoveIdentity(id, privateKey, passphrase, comment));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AgentStatistics getStatistics() throws IOException, InterruptedException {
+        return channel().call(new GetStatistics(id));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stop() throws IOException, InterruptedException {
+        channel().call(new Stop(id));
+    }
+
+    private static final class AddIdentity extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+        private final String privateKey;
+        private final String passphrase;
+        private final String comment;
+
+        AddIdentity(String id, String privateKey, String passphrase, String comment) {
+            this.id = id;
+            this.privateKey = privateKey;
+            this.passphrase = passphrase;
+            this.comment = comment;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                lookup(id).addIdentity(privateKey, passphrase, comment);
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException().initCause(e);
+            }
+            return null;
+        }
+    }
+
+    private static final class RemoveIdentity extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+        private final String privateKey;
+        private final String passphrase;
+        private final String comment;
+
+        RemoveIdentity(String id, String privateKey, String passphrase, String comment) {
+            this.id = id;
+            this.privateKey = privateKey;
+            this.passphrase = passphrase;
+            this.comment = comment;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                lookup(id).removeIdentity(privateKey, passphrase, comment);
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException().initCause(e);
+            }
+            return null;
+        }
+    }
+
+    private static final class GetStatistics extends MasterToSlaveCallable<AgentStatistics, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+
+        GetStatistics(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public AgentStatistics call() throws IOException {
+            try {
+                return lookup(id).getStatistics();
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException().initCause(e);
+            }
+        }
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            RemoteAgent agent = release(id);
+            if (agent == null) {
+                return null; // already stopped, e.g. when a shared agent is stopped twice
+            }
+            try {
+                agent.stop();
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException().initCause(e);
+            }
+            return null;
+        }
+    }
+}
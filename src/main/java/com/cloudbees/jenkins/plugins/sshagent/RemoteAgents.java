@@ -0,0 +1,300 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Starts a {@link RemoteAgent} with the first {@link RemoteAgentFactory} that works on a node.
+ * Factories are tried in the order of the {@link SSHAgentConfiguration} rules matching the node, then in the order
+ * given by {@link FactoryStatistics#rank(String, List)}.
+ */
+@Restricted(NoExternalUse.class)
+public final class RemoteAgents {
+
+    /**
+     * How long, in seconds, to wait for the providers probed concurrently to tell whether they are supported, from
+     * the start of the probes or from the last provider that failed to start, whichever is later.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "tunable from the script console")
+    public static long PROBE_TIMEOUT =
+            Long.getLong(RemoteAgents.class.getName() + ".PROBE_TIMEOUT", 10);
+
+    private RemoteAgents() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Starts an agent.
+     *
+     * @param launcher the launcher for the remote node.
+     * @param listener the listener for reporting progress.
+     * @param temp     the temporary directory for the agent socket, or {@code null}.
+     * @param node     the node, or {@code null} if unknown in which case no statistics are kept.
+     * @return the started agent and the factory that started it.
+     * @throws RuntimeException if no factory could start an agent.
+     * @throws InterruptedException if interrupted while waiting for the providers to be probed.
+     */
+    @Nonnull
+    public static Started start(@Nonnull Launcher launcher, @Nonnull TaskListener listener,
+                                @CheckForNull FilePath temp, @CheckForNull Node node) throws InterruptedException {
+        return start(launcher, listener, temp, node, null);
+    }
+
+    /**
+     * Starts an agent, timing each probe and the start.
+     *
+     * @param launcher the launcher for the remote node.
+     * @param listener the listener for reporting progress.
+     * @param temp     the temporary directory for the agent socket, or {@code null}.
+     * @param node     the node, or {@code null} if unknown in which case no statistics are kept.
+     * @param timings  where to record the {@link AgentTimings#PROBE} and {@link AgentTimings#START} phases, or
+     *                 {@code null}.
+     * @return the started agent and the factory that started it.
+     * @throws RuntimeException if no factory could start an agent.
+     * @throws InterruptedException if interrupted while waiting for the providers to be probed.
+     */
+    @Nonnull
+    public static Started start(@Nonnull Launcher launcher, @Nonnull TaskListener listener,
+                                @CheckForNull FilePath temp, @CheckForNull Node node,
+                                @CheckForNull AgentTimings timings) throws InterruptedException {
+        return start(launcher, listener, temp, node, timings,
+                Jenkins.getActiveInstance().getExtensionList(RemoteAgentFactory.class));
+    }
+
+    @Nonnull
+    static Started start(@Nonnull Launcher launcher, @Nonnull TaskListener listener,
+                         @CheckForNull FilePath temp, @CheckForNull Node node,
+                         @CheckForNull AgentTimings timings,
+                         @Nonnull List<RemoteAgentFactory> installed) throws InterruptedException {
+        String nodeName = node == null ? null : node.getNodeName();
+        RemoteAgentFactory pinned = null;
+        List<RemoteAgentFactory> factories = new ArrayList<RemoteAgentFactory>();
+        SSHAgentConfiguration config = SSHAgentConfiguration.get();
+        if (config != null) {
+            for (SSHAgentConfiguration.FactoryRule rule : config.getRules()) {
+                RemoteAgentFactory factory = rule.matches(node) ? rule.find(installed) : null;
+                if (factory == null) {
+                    continue;
+                }
+                if (rule.isPinned() && factories.isEmpty()) {
+                    pinned = factory;
+                    break;
+                }
+                if (!factories.contains(factory)) {
+                    factories.add(factory);
+                }
+            }
+        }
+        // without a rule or history to go by, ask all the providers at once rather than one after the other
+        boolean concurrently = pinned == null && factories.isEmpty()
+                && (nodeName == null || !FactoryStatistics.hasHistory(nodeName));
+        if (pinned != null) {
+            factories = Collections.singletonList(pinned);
+        } else {
+            List<RemoteAgentFactory> others = new ArrayList<RemoteAgentFactory>(installed);
+            others.removeAll(factories);
+            factories.addAll(nodeName == null ? others : FactoryStatistics.rank(nodeName, others));
+        }
+        listener.getLogger().println("[ssh-agent] Looking for ssh-agent implementation...");
+        Map<String, Throwable> faults = new LinkedHashMap<String, Throwable>();
+        Map<RemoteAgentFactory, Future<Boolean>> probes = concurrently && factories.size() > 1
+                ? probe(factories, launcher, listener, timings)
+                : Collections.<RemoteAgentFactory, Future<Boolean>>emptyMap();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PROBE_TIMEOUT);
+        try {
+            for (RemoteAgentFactory factory : factories) {
+                Future<Boolean> supported = probes.get(factory);
+                if (factory == pinned || (supported == null
+                        ? isSupported(factory, launcher, listener, timings)
+                        : isSupported(factory, supported, deadline, faults))) {
+                    try {
+                        if (factory == pinned) {
+                            listener.getLogger().println(Messages.RemoteAgents_UsingPinnedFactory(factory.getDisplayName()));
+                        } else {
+                            listener.getLogger().println("[ssh-agent]   " + factory.getDisplayName());
+                        }
+                        long start = System.nanoTime();
+                        RemoteAgent agent = factory.start(launcher, listener, temp);
+                        long elapsed = System.nanoTime() - start;
+                        if (nodeName != null) {
+                            FactoryStatistics.recordSuccess(nodeName, factory, elapsed);
+                        }
+                        if (timings != null) {
+                            timings.setFactory(factory);
+                            timings.record(AgentTimings.START, factory.getDisplayName(), elapsed);
+                        }
+                        logFaults(faults, timings);
+                        return new Started(agent, factory);
+                    } catch (Throwable t) {
+                        faults.put(factory.getDisplayName(), t);
+                        // the probes of the next providers get the full timeout, however long this one took to fail
+                        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(PROBE_TIMEOUT);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException(); // aborted, which says nothing about the provider
+                }
+                if (nodeName != null && (supported == null || !supported.isCancelled())) {
+                    FactoryStatistics.recordFailure(nodeName, factory);
+                }
+            }
+        } finally {
+            for (Future<Boolean> f : probes.values()) {
+                f.cancel(true);
+            }
+        }
+        logFaults(faults, timings);
+        listener.getLogger().println("[ssh-agent] FATAL: Could not find a suitable ssh-agent provider");
+        listener.getLogger().println("[ssh-agent] Diagnostic report");
+        for (Map.Entry<String, Throwable> fault : faults.entrySet()) {
+            listener.getLogger().println("[ssh-agent] * " + fault.getKey());
+            StringWriter sw = new StringWriter();
+            fault.getValue().printStackTrace(new PrintWriter(sw));
+            for (String line : StringUtils.split(sw.toString(), "\n")) {
+                listener.getLogger().println("[ssh-agent]     " + line);
+            }
+        }
+        throw new RuntimeException("[ssh-agent] Could not find a suitable ssh-agent provider.");
+    }
+
+    /**
+     * Logs the providers that failed to the {@link AgentEventLog}.
+     */
+    private static void logFaults(Map<String, Throwable> faults, @CheckForNull AgentTimings timings) {
+        if (timings == null || faults.isEmpty() || !AgentEventLog.isEnabled()) {
+            return;
+        }
+        for (Map.Entry<String, Throwable> fault : faults.entrySet()) {
+            JSONObject fields = new JSONObject();
+            fields.put("factory", fault.getKey());
+            fields.put("error", String.valueOf(fault.getValue()));
+            AgentEventLog.log("fault", timings.getNode(), timings.getBuild(), fields);
+        }
+    }
+
+    /**
+     * Starts asking the providers whether they are supported, concurrently.
+     */
+    private static Map<RemoteAgentFactory, Future<Boolean>> probe(List<RemoteAgentFactory> factories,
+                                                                  final Launcher launcher,
+                                                                  final TaskListener listener,
+                                                                  @CheckForNull final AgentTimings timings) {
+        Map<RemoteAgentFactory, Future<Boolean>> probes = new HashMap<RemoteAgentFactory, Future<Boolean>>();
+        for (final RemoteAgentFactory factory : factories) {
+            probes.put(factory, Computer.threadPoolForRemoting.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return isSupported(factory, launcher, listener, timings);
+                }
+            }));
+        }
+        return probes;
+    }
+
+    /**
+     * Asks a provider whether it is supported, timing the answer.
+     */
+    private static boolean isSupported(RemoteAgentFactory factory, Launcher launcher, TaskListener listener,
+                                       @CheckForNull AgentTimings timings) {
+        long start = System.nanoTime();
+        try {
+            return factory.isSupported(launcher, listener);
+        } finally {
+            // a probe cancelled once another provider started did not hold anything up
+            if (timings != null && !Thread.currentThread().isInterrupted()) {
+                timings.record(AgentTimings.PROBE, factory.getDisplayName(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Waits for the answer of a provider probed by {@link #probe(List, Launcher, TaskListener, AgentTimings)}.
+     * A provider that fails to answer in time, or fails to answer at all, is not supported.
+     */
+    private static boolean isSupported(RemoteAgentFactory factory, Future<Boolean> probe, long deadline,
+                                       Map<String, Throwable> faults) throws InterruptedException {
+        try {
+            return probe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            faults.put(factory.getDisplayName(), e.getCause());
+            return false;
+        } catch (TimeoutException e) {
+            faults.put(factory.getDisplayName(), e);
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * An agent together with the factory that started it.
+     */
+    public static final class Started {
+        private final RemoteAgent agent;
+        private final RemoteAgentFactory factory;
+
+        Started(@Nonnull RemoteAgent agent, @Nonnull RemoteAgentFactory factory) {
+            this.agent = agent;
+            this.factory = factory;
+        }
+
+        @Nonnull
+        public RemoteAgent getAgent() {
+            return agent;
+        }
+
+        @Nonnull
+        public RemoteAgentFactory getFactory() {
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remembers the credentials resolved for a build, so that repeated {@code sshagent} blocks, parallel branches and
+ * resumes do not walk the credentials providers again.
+ * Credentials are {@linkplain CredentialsProvider#track(Run, com.cloudbees.plugins.credentials.Credentials) tracked}
+ * when first resolved.
+ */
+@Restricted(NoExternalUse.class)
+public final class RunCredentialsCache {
+
+    /**
+     * The resolved credentials by credential ID, for each running build.
+     */
+    private static final Map<Run<?, ?>, Map<String, SSHUserPrivateKey>> CACHE =
+            new WeakHashMap<Run<?, ?>, Map<String, SSHUserPrivateKey>>();
+
+    private RunCredentialsCache() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Resolves a credential for a build.
+     *
+     * @param id    the credential ID.
+     * @param build the build.
+     * @return the credential, or {@code null} if it cannot be found.
+     */
+    @CheckForNull
+    public static SSHUserPrivateKey lookup(@Nonnull String id, @Nonnull Run<?, ?> build) {
+        synchronized (CACHE) {
+            Map<String, SSHUserPrivateKey> credentials = CACHE.get(build);
+            SSHUserPrivateKey c = credentials == null ? null : credentials.get(id);
+            if (c != null) {
+                return c;
+            }
+        }
+        // resolve outside of the lock, external providers can be slow
+        SSHUserPrivateKey c = CredentialsProvider.findCredentialById(id, SSHUserPrivateKey.class, build);
+        if (c == null) {
+            return null; // not remembered, the credential may still be created while the build runs
+        }
+        synchronized (CACHE) {
+            Map<String, SSHUserPrivateKey> credentials = CACHE.get(build);
+            if (credentials == null) {
+                credentials = new HashMap<String, SSHUserPrivateKey>();
+                CACHE.put(build, credentials);
+            }
+            SSHUserPrivateKey existing = credentials.get(id);
+            if (existing != null) {
+                return existing; // resolved concurrently, already tracked
+            }
+            credentials.put(id, c);
+        }
+        CredentialsProvider.track(build, c);
+        return c;
+    }
+
+    /**
+     * Forgets the credentials of completed builds.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onFinalized(Run<?, ?> run) {
+            synchronized (CACHE) {
+                CACHE.remove(run);
+            }
+        }
+    }
+}
@@ -25,7 +25,6 @@ package com.cloudbees.jenkins.plugins.sshagent;
 
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHAuthenticator;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
@@ -39,6 +38,7 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Item;
 import hudson.model.Queue;
@@ -51,18 +51,13 @@ import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 import java.io.IOException;
 import java.io.ObjectStreamException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import jenkins.model.Jenkins;
-import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.Stapler;
 
@@ -197,14 +192,10 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
     public void preCheckout(AbstractBuild build, Launcher launcher, BuildListener listener)
             throws IOException, InterruptedException {
         // first collect all the keys (this is so we can bomb out before starting an agent
+        long lookup = System.nanoTime();
         List<SSHUserPrivateKey> keys = new ArrayList<SSHUserPrivateKey>();
         for (String id : new LinkedHashSet<String>(getCredentialIds())) {
-            final SSHUserPrivateKey c = CredentialsProvider.findCredentialById(
-                    id,
-                    SSHUserPrivateKey.class,
-                    build
-            );
-            CredentialsProvider.track(build, c);
+            final SSHUserPrivateKey c = RunCredentialsCache.lookup(id, build);
             if (c == null && !ignoreMissing) {
                 IOException ioe = new IOException(Messages.SSHAgentBuildWrapper_CredentialsNotFound());
                 ioe.printStackTrace(listener.fatalError(""));
@@ -214,6 +205,7 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
                 keys.add(c);
             }
         }
+        lookup = System.nanoTime() - lookup;
 
         SSHAgentEnvironment environment = null;
         for (hudson.model.Environment env: build.getEnvironments()) {
@@ -225,8 +217,13 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
         }
         if (environment == null) {
             // none so let's add one
-            environment = createSSHAgentEnvironment(build, launcher, listener);
+            AgentTimings timings = new AgentTimings(build.getBuiltOnStr(), build.getExternalizableId());
+            timings.record(AgentTimings.CREDENTIALS, null, lookup);
+            environment = createSSHAgentEnvironment(build, launcher, listener, timings);
             build.getEnvironments().add(environment);
+            AgentTimingsAction.add(build, timings);
+        } else {
+            environment.timings.record(AgentTimings.CREDENTIALS, null, lookup);
         }
         for (SSHUserPrivateKey key : keys) {
             environment.add(key);
@@ -245,10 +242,11 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
         return new NoOpEnvironment();
     }
 
-    private SSHAgentEnvironment createSSHAgentEnvironment(AbstractBuild build, Launcher launcher, BuildListener listener)
+    private SSHAgentEnvironment createSSHAgentEnvironment(AbstractBuild build, Launcher launcher, BuildListener listener,
+                                                          AgentTimings timings)
             throws IOException, InterruptedException {
         try {
-            return new SSHAgentEnvironment(launcher, listener, build.getWorkspace());
+            return new SSHAgentEnvironment(launcher, listener, build.getWorkspace(), timings);
         } catch (IOException e) {
             throw new IOException2(Messages.SSHAgentBuildWrapper_CouldNotStartAgent(), e);
         } catch (InterruptedException e) {
@@ -305,6 +303,11 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
          */
         private final RemoteAgent agent;
 
+        /**
+         * The timings of the agent.
+         */
+        private final AgentTimings timings;
+
         /**
          * Construct the environment and initialize on the remote node.
          *
@@ -353,34 +356,20 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
          * @since 1.9
          */
         public SSHAgentEnvironment(Launcher launcher, BuildListener listener, @CheckForNull FilePath workspace) throws Throwable {
-            RemoteAgent agent = null;
-            listener.getLogger().println("[ssh-agent] Looking for ssh-agent implementation...");
-            Map<String, Throwable> faults = new LinkedHashMap<String, Throwable>();
-            for (RemoteAgentFactory factory : Jenkins.getActiveInstance().getExtensionList(RemoteAgentFactory.class)) {
-                if (factory.isSupported(launcher, listener)) {
-                    try {
-                        listener.getLogger().println("[ssh-agent]   " + factory.getDisplayName());
-                        agent = factory.start(launcher, listener, workspace != null ? SSHAgentStepExecution.tempDir(workspace) : null);
-                        break;
-                    } catch (Throwable t) {
-                        faults.put(factory.getDisplayName(), t);
-                    }
-                }
-            }
-            if (agent == null) {
-                listener.getLogger().println("[ssh-agent] FATAL: Could not find a suitable ssh-agent provider");
-                listener.getLogger().println("[ssh-agent] Diagnostic report");
-                for (Map.Entry<String, Throwable> fault : faults.entrySet()) {
-                    listener.getLogger().println("[ssh-agent] * " + fault.getKey());
-                    StringWriter sw = new StringWriter();
-                    fault.getValue().printStackTrace(new PrintWriter(sw));
-                    for (String line : StringUtils.split(sw.toString(), "\n")) {
-                        listener.getLogger().println("[ssh-agent]     " + line);
-                    }
-                }
-                throw new RuntimeException("[ssh-agent] Could not find a suitable ssh-agent provider.");
+            this(launcher, listener, workspace, null);
+        }
+
+        private SSHAgentEnvironment(Launcher launcher, BuildListener listener, @CheckForNull FilePath workspace,
+                                    @CheckForNull AgentTimings timings) throws Throwable {
+            Computer computer = workspace == null ? null : workspace.toComputer();
+            if (timings == null) {
+                timings = new AgentTimings(computer == null ? null : computer.getName());
             }
+            RemoteAgent agent = RemoteAgents.start(launcher, listener,
+                    workspace != null ? SSHAgentStepExecution.tempDir(workspace) : null,
+                    computer == null ? null : computer.getNode(), timings).getAgent();
             this.agent = agent;
+            this.timings = timings;
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_Started());
         }
 
@@ -392,11 +381,13 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
          * @since 1.9
          */
         public void add(SSHUserPrivateKey key) throws IOException, InterruptedException {
+            long start = System.nanoTime();
             final Secret passphrase = key.getPassphrase();
             final String effectivePassphrase = passphrase == null ? null : passphrase.getPlainText();
             for (String privateKey : key.getPrivateKeys()) {
                 agent.addIdentity(privateKey, effectivePassphrase, description(key));
             }
+            timings.record(AgentTimings.IDENTITY, description(key), System.nanoTime() - start);
         }
 
         /**
@@ -414,8 +405,12 @@ public class SSHAgentBuildWrapper extends BuildWrapper {
         public boolean tearDown(AbstractBuild build, BuildListener listener)
                 throws IOException, InterruptedException {
             if (agent != null) {
+                timings.collect(agent);
+                long start = System.nanoTime();
                 agent.stop();
                 listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+                timings.record(AgentTimings.STOP, null, System.nanoTime() - start);
+                timings.print(listener);
             }
             return true;
         }
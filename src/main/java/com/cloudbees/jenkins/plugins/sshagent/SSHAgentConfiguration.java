@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Global configuration of the ssh-agent providers.
+ * Administrators can list, per node label expression, the {@link RemoteAgentFactory} to try first or to pin.
+ *
+ * @since 1.18
+ */
+@Extension
+public class SSHAgentConfiguration extends GlobalConfiguration {
+
+    /**
+     * The factory rules, in order.
+     */
+    private List<FactoryRule> rules = new ArrayList<FactoryRule>();
+
+    /**
+     * Whether nodes are made ready for their first agent when they come online.
+     */
+    private boolean prewarm;
+
+    /**
+     * Whether the {@link OverheadHistory} is saved, to survive restarts.
+     */
+    private boolean persistOverhead;
+
+    /**
+     * Whether the agent lifecycle is logged to the {@link AgentEventLog}.
+     */
+    private boolean eventLog;
+
+    public SSHAgentConfiguration() {
+        load();
+    }
+
+    /**
+     * Gets the configuration.
+     *
+     * @return the configuration, or {@code null} if Jenkins is not running.
+     */
+    @CheckForNull
+    public static SSHAgentConfiguration get() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins == null ? null : jenkins.getDescriptorByType(SSHAgentConfiguration.class);
+    }
+
+    @Nonnull
+    public List<FactoryRule> getRules() {
+        return rules == null ? Collections.<FactoryRule>emptyList() : Collections.unmodifiableList(rules);
+    }
+
+    @DataBoundSetter
+    public void setRules(@CheckForNull List<FactoryRule> rules) {
+        this.rules = rules == null ? new ArrayList<FactoryRule>() : new ArrayList<FactoryRule>(rules);
+    }
+
+    public boolean isPrewarm() {
+        return prewarm;
+    }
+
+    @DataBoundSetter
+    public void setPrewarm(boolean prewarm) {
+        this.prewarm = prewarm;
+    }
+
+    public boolean isPersistOverhead() {
+        return persistOverhead;
+    }
+
+    @DataBoundSetter
+    public void setPersistOverhead(boolean persistOverhead) {
+        this.persistOverhead = persistOverhead;
+    }
+
+    public boolean isEventLog() {
+        return eventLog;
+    }
+
+    @DataBoundSetter
+    public void setEventLog(boolean eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        // an empty repeatable is not submitted at all
+        setRules(null);
+        setPrewarm(false);
+        setPersistOverhead(false);
+        setEventLog(false);
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public String getDisplayName() {
+        return Messages.SSHAgentConfiguration_DisplayName();
+    }
+
+    /**
+     * Selects a {@link RemoteAgentFactory} for the nodes matching a label expression.
+     */
+    public static class FactoryRule extends AbstractDescribableImpl<FactoryRule> {
+
+        /**
+         * The label expression, blank for any node.
+         */
+        private final String label;
+
+        /**
+         * The class name of the factory.
+         */
+        private final String factory;
+
+        /**
+         * Whether the factory is started without asking {@link RemoteAgentFactory#isSupported} and without trying
+         * any other factory.
+         */
+        private boolean pinned;
+
+        @DataBoundConstructor
+        public FactoryRule(String label, String factory) {
+            this.label = Util.fixEmptyAndTrim(label);
+            this.factory = factory;
+        }
+
+        @CheckForNull
+        public String getLabel() {
+            return label;
+        }
+
+        public String getFactory() {
+            return factory;
+        }
+
+        public boolean isPinned() {
+            return pinned;
+        }
+
+        @DataBoundSetter
+        public void setPinned(boolean pinned) {
+            this.pinned = pinned;
+        }
+
+        /**
+         * Checks if this rule applies to a node.
+         *
+         * @param node the node, or {@code null} if unknown in which case only rules without label apply.
+         * @return {@code true} if the rule applies.
+         */
+        public boolean matches(@CheckForNull Node node) {
+            if (label == null) {
+                return true;
+            }
+            if (node == null) {
+                return false;
+            }
+            try {
+                return Label.parseExpression(label).matches(node);
+            } catch (ANTLRException e) {
+                return false; // rejected by the form validation, but may have been edited on disk
+            }
+        }
+
+        /**
+         * Finds the installed factory of this rule.
+         *
+         * @param factories the installed factories.
+         * @return the factory, or {@code null} if it is not installed (anymore).
+         */
+        @CheckForNull
+        public RemoteAgentFactory find(@Nonnull List<RemoteAgentFactory> factories) {
+            for (RemoteAgentFactory f : factories) {
+                if (f.getClass().getName().equals(factory)) {
+                    return f;
+                }
+            }
+            return null;
+        }
+
+        @Extension
+        public static class DescriptorImpl extends Descriptor<FactoryRule> {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Nonnull
+            @Override
+            public String getDisplayName() {
+                return Messages.SSHAgentConfiguration_FactoryRule_DisplayName();
+            }
+
+            public ListBoxModel doFillFactoryItems() {
+                ListBoxModel items = new ListBoxModel();
+                for (RemoteAgentFactory f : Jenkins.getActiveInstance().getExtensionList(RemoteAgentFactory.class)) {
+                    items.add(f.getDisplayName(), f.getClass().getName());
+                }
+                return items;
+            }
+
+            public FormValidation doCheckLabel(@QueryParameter String value) {
+                if (Util.fixEmptyAndTrim(value) == null) {
+                    return FormValidation.ok();
+                }
+                try {
+                    Label.parseExpression(value);
+                    return FormValidation.ok();
+                } catch (ANTLRException e) {
+                    return FormValidation.error(e.getMessage());
+                }
+            }
+        }
+    }
+}
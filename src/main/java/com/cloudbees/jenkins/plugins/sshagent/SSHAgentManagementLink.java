@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ManagementLink;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Shows the overhead of the ssh-agents of recent builds, from the {@link OverheadHistory}: the jobs spending the most
+ * time setting agents up, and the providers used on each node.
+ *
+ * @since 1.18
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class SSHAgentManagementLink extends ManagementLink {
+
+    /**
+     * The number of jobs shown.
+     */
+    private static final int MAX_JOBS = 50;
+
+    /**
+     * The mean wall-clock probe time, in milliseconds, above which a node is flagged as slow.
+     */
+    private static final long SLOW_PROBE = Long.getLong(SSHAgentManagementLink.class.getName() + ".SLOW_PROBE", 2000);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getIconFileName() {
+        return "secure.png";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUrlName() {
+        return "ssh-agent";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDisplayName() {
+        return Messages.SSHAgentManagementLink_DisplayName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDescription() {
+        return Messages.SSHAgentManagementLink_Description();
+    }
+
+    /**
+     * Gets the number of agents the report is based on.
+     *
+     * @return the number of agents remembered.
+     */
+    public int getAgentCount() {
+        return OverheadHistory.getEntries().size();
+    }
+
+    /**
+     * Ranks the jobs by the total time spent setting up and stopping agents.
+     *
+     * @return the jobs with the most overhead first.
+     */
+    @Nonnull
+    public List<JobOverhead> getJobs() {
+        Map<String, JobOverhead> jobs = new LinkedHashMap<String, JobOverhead>();
+        for (OverheadHistory.Entry entry : OverheadHistory.getEntries()) {
+            JobOverhead job = jobs.get(entry.getJob());
+            if (job == null) {
+                job = new JobOverhead(entry.getJob());
+                jobs.put(entry.getJob(), job);
+            }
+            job.add(entry);
+        }
+        List<JobOverhead> result = new ArrayList<JobOverhead>(jobs.values());
+        Collections.sort(result, new Comparator<JobOverhead>() {
+            @Override
+            public int compare(JobOverhead o1, JobOverhead o2) {
+                return Long.compare(o2.totalMicros, o1.totalMicros);
+            }
+        });
+        return result.size() > MAX_JOBS ? result.subList(0, MAX_JOBS) : result;
+    }
+
+    /**
+     * Summarizes the providers used and the probe times on each node.
+     *
+     * @return the nodes, by name.
+     */
+    @Nonnull
+    public List<NodeOverhead> getNodes() {
+        Map<String, NodeOverhead> nodes = new TreeMap<String, NodeOverhead>();
+        for (OverheadHistory.Entry entry : OverheadHistory.getEntries()) {
+            String name = entry.getNode() == null ? "" : entry.getNode();
+            NodeOverhead node = nodes.get(name);
+            if (node == null) {
+                node = new NodeOverhead(name);
+                nodes.put(name, node);
+            }
+            node.add(entry);
+        }
+        return new ArrayList<NodeOverhead>(nodes.values());
+    }
+
+    /**
+     * Forgets the recorded overhead.
+     *
+     * @return a redirect to the page.
+     */
+    @RequirePOST
+    public HttpResponse doClear() throws IOException {
+        Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER);
+        OverheadHistory.clear();
+        return HttpResponses.redirectToDot();
+    }
+
+    private static long millis(long micros) {
+        return TimeUnit.MICROSECONDS.toMillis(micros);
+    }
+
+    /**
+     * The agents of a job.
+     */
+    public static final class JobOverhead {
+        private final String name;
+        private int agents;
+        private long totalMicros;
+        private long stopMicros;
+        private long signatures;
+
+        JobOverhead(String name) {
+            this.name = name;
+        }
+
+        void add(OverheadHistory.Entry entry) {
+            agents++;
+            totalMicros += entry.getSetupMicros() + entry.getStopMicros();
+            stopMicros += entry.getStopMicros();
+            signatures += entry.getSignatures();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @CheckForNull
+        public String getUrl() {
+            Item item = Jenkins.getActiveInstance().getItemByFullName(name);
+            return item == null ? null : item.getUrl();
+        }
+
+        public int getAgents() {
+            return agents;
+        }
+
+        public long getTotalMillis() {
+            return millis(totalMicros);
+        }
+
+        public long getMeanMillis() {
+            return agents == 0 ? 0 : millis(totalMicros / agents);
+        }
+
+        public long getStopMillis() {
+            return millis(stopMicros);
+        }
+
+        public long getSignatures() {
+            return signatures;
+        }
+    }
+
+    /**
+     * The agents of a node.
+     */
+    public static final class NodeOverhead {
+        private final String name;
+        private final Map<String, Integer> factories = new TreeMap<String, Integer>();
+        private int agents;
+        private long probeMicros;
+        private long setupMicros;
+
+        NodeOverhead(String name) {
+            this.name = name;
+        }
+
+        void add(OverheadHistory.Entry entry) {
+            agents++;
+            probeMicros += entry.getProbeMicros();
+            setupMicros += entry.getSetupMicros();
+            String factory = displayName(entry.getFactory());
+            Integer count = factories.get(factory);
+            factories.put(factory, count == null ? 1 : count + 1);
+        }
+
+        private static String displayName(@CheckForNull String className) {
+            if (className == null) {
+                return "?";
+            }
+            for (RemoteAgentFactory factory : Jenkins.getActiveInstance().getExtensionList(RemoteAgentFactory.class)) {
+                if (factory.getClass().getName().equals(className)) {
+                    return factory.getDisplayName();
+                }
+            }
+            return className;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getAgents() {
+            return agents;
+        }
+
+        public Map<String, Integer> getFactories() {
+            return Collections.unmodifiableMap(factories);
+        }
+
+        public long getMeanProbeMillis() {
+            return agents == 0 ? 0 : millis(probeMicros / agents);
+        }
+
+        public long getMeanSetupMillis() {
+            return agents == 0 ? 0 : millis(setupMicros / agents);
+        }
+
+        public boolean isSlowProbe() {
+            return getMeanProbeMillis() > SLOW_PROBE;
+        }
+    }
+}
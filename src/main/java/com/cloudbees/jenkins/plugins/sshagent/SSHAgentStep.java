@@ -37,6 +37,11 @@ public class SSHAgentStep extends AbstractStepImpl implements Serializable {
      */
     private boolean ignoreMissing;
 
+    /**
+     * If set, blocks of the same build running on the same node with the same credentials share one agent.
+     */
+    private boolean shared;
+
     /**
      * Default parameterized constructor.
      *
@@ -99,6 +104,15 @@ public class SSHAgentStep extends AbstractStepImpl implements Serializable {
         return ignoreMissing;
     }
 
+    @DataBoundSetter
+    public void setShared(final boolean shared) {
+        this.shared = shared;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
     public List<String> getCredentials() {
         return credentials;
     }
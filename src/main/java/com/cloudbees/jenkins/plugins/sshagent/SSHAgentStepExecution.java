@@ -1,30 +1,65 @@
 package com.cloudbees.jenkins.plugins.sshagent;
 
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.google.inject.Inject;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.model.Computer;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.slaves.WorkspaceList;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
-import org.apache.commons.lang.StringUtils;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.workflow.steps.*;
 
 import javax.annotation.CheckReturnValue;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 public class SSHAgentStepExecution extends AbstractStepExecutionImpl {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * When {@code true}, resumed blocks restart their agent on the socket they used before the restart, using the
+     * factory that last started it, instead of starting from scratch.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "tunable from the script console")
+    public static boolean FAST_RESUME = Boolean.parseBoolean(
+            System.getProperty(SSHAgentStepExecution.class.getName() + ".FAST_RESUME", "true"));
+
+    /**
+     * The maximum number of agents restarted concurrently after a controller restart.
+     */
+    private static final int RESUME_CONCURRENCY =
+            Integer.getInteger(SSHAgentStepExecution.class.getName() + ".RESUME_CONCURRENCY", 4);
+
+    /**
+     * Restarts the agents of resumed blocks, so that a controller restart with many running builds does not start
+     * all of them at once.
+     */
+    private static final ExecutorService RESUMER;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(RESUME_CONCURRENCY, RESUME_CONCURRENCY,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "SSHAgentStepExecution.resume"));
+        executor.allowCoreThreadTimeOut(true);
+        RESUMER = executor;
+    }
+
     @StepContextParameter
     private transient TaskListener listener;
 
@@ -56,32 +91,114 @@ public class SSHAgentStepExecution extends AbstractStepExecutionImpl {
      */
     private transient RemoteAgent agent = null;
 
+    /**
+     * The name of the computer the agent runs on. Nested blocks only borrow our agent when they run on the same one.
+     */
+    private String nodeName;
+
+    /**
+     * Reference counts of the credentials loaded in our agent, keyed by credential ID. Also holds the credentials
+     * that nested blocks added while borrowing the agent, so that they can be reloaded on resume.
+     */
+    private Map<String, Integer> identities;
+
+    /**
+     * The enclosing execution whose agent this block borrows, or {@code null} when this block runs its own agent.
+     */
+    private SSHAgentStepExecution enclosing;
+
+    /**
+     * The IDs of the credentials this block added to the agent of the {@link #enclosing} execution.
+     */
+    private List<String> borrowed;
+
+    /**
+     * The key of the {@link SharedAgents shared agent} this block uses, or {@code null} if not shared.
+     */
+    private String sharedKey;
+
+    /**
+     * The class name of the {@link RemoteAgentFactory} that started our agent.
+     */
+    private String factoryName;
+
+    /**
+     * The timings of our agent, since it was last started on this controller.
+     */
+    private transient AgentTimings timings;
+
+    /**
+     * The pending restart of the agent after a controller restart.
+     */
+    private transient volatile CompletableFuture<Void> resuming;
+
     @Override
     public boolean start() throws Exception {
         StepContext context = getContext();
         sockets = new ArrayList<String>();
-        initRemoteAgent();
+        Computer computer = context.get(Computer.class);
+        nodeName = computer == null ? null : computer.getName();
+        SSHAgentStepExecution candidate = context.get(SSHAgentStepExecution.class);
+        if (candidate != null && candidate.canLendTo(this)) {
+            listener.getLogger().println(Messages.SSHAgentStepExecution_UsingEnclosingAgent());
+            enclosing = candidate;
+            borrowed = enclosing.acquire(resolveCredentials());
+            context.newBodyInvoker().
+                    withCallback(new Callback(this)).start();
+            return false;
+        }
+        identities = new LinkedHashMap<String, Integer>();
+        if (step.isShared()) {
+            initSharedAgent(false);
+        } else {
+            initRemoteAgent();
+        }
         context.newBodyInvoker().
-                withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new ExpanderImpl(this))).
+                withContexts(this, EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class), new ExpanderImpl(this))).
                 withCallback(new Callback(this)).start();
         return false;
     }
 
     @Override
     public void stop(Throwable cause) throws Exception {
-        if (agent != null) {
-            agent.stop();
-            listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
-        }
-        purgeSockets();
+        tearDownWhenResumed(listener);
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        if (enclosing != null) {
+            // the enclosing execution reloads the credentials we borrowed when it resumes
+            return;
+        }
+        if (identities == null) {
+            identities = new LinkedHashMap<String, Integer>();
+        }
+        if (FAST_RESUME && factoryName != null && socket != null) {
+            resuming = CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (sharedKey != null) {
+                            initSharedAgent(true);
+                        } else {
+                            resumeRemoteAgent();
+                        }
+                    } catch (IOException | InterruptedException | RuntimeException x) {
+                        listener.getLogger().println(Messages.SSHAgentBuildWrapper_CouldNotStartAgent());
+                        x.printStackTrace(listener.getLogger());
+                    }
+                }
+            }, RESUMER);
+            return;
+        }
         try {
             purgeSockets();
-            initRemoteAgent();
+            if (sharedKey != null) {
+                initSharedAgent(false);
+            } else {
+                initRemoteAgent();
+            }
         } catch (IOException | InterruptedException x) {
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_CouldNotStartAgent());
             x.printStackTrace(listener.getLogger());
@@ -132,11 +249,158 @@ public class SSHAgentStepExecution extends AbstractStepExecutionImpl {
      * @throws IOException
      */
     private void initRemoteAgent() throws IOException, InterruptedException {
+        AgentTimings timings = new AgentTimings(nodeName, build.getExternalizableId());
+        long start = System.nanoTime();
+        List<SSHUserPrivateKey> userPrivateKeys = resolveCredentials();
+        timings.record(AgentTimings.CREDENTIALS, null, System.nanoTime() - start);
+
+        Computer computer = getContext().get(Computer.class);
+        RemoteAgents.Started started = RemoteAgents.start(launcher, listener, tempDir(workspace),
+                computer == null ? null : computer.getNode(), timings);
+        agent = started.getAgent();
+        factoryName = started.getFactory().getClass().getName();
+        this.timings = timings;
+        AgentTimingsAction.add(build, timings);
+
+        loadIdentities(userPrivateKeys);
+    }
+
+    /**
+     * Restarts the agent on the socket it used before a controller restart, with the factory that had started it.
+     * Falls back to {@link #initRemoteAgent()} if that is not possible.
+     */
+    private void resumeRemoteAgent() throws IOException, InterruptedException {
+        RemoteAgentFactory factory = null;
+        for (RemoteAgentFactory f : Jenkins.getActiveInstance().getExtensionList(RemoteAgentFactory.class)) {
+            if (f.getClass().getName().equals(factoryName)) {
+                factory = f;
+                break;
+            }
+        }
+        if (factory != null) {
+            List<SSHUserPrivateKey> userPrivateKeys = resolveCredentials();
+            listener.getLogger().println(Messages.SSHAgentStepExecution_Resuming(factory.getDisplayName(), socket));
+            try {
+                agent = factory.resume(launcher, listener, tempDir(workspace), socket);
+            } catch (Throwable t) {
+                t.printStackTrace(listener.error(Messages.SSHAgentBuildWrapper_CouldNotStartAgent()));
+            }
+            if (agent != null) {
+                loadIdentities(userPrivateKeys);
+                return;
+            }
+        }
+        purgeSockets();
+        initRemoteAgent();
+    }
+
+    /**
+     * Loads the credentials into the freshly started agent and publishes its socket.
+     *
+     * @param userPrivateKeys the credentials of the step.
+     */
+    private void loadIdentities(List<SSHUserPrivateKey> userPrivateKeys) throws IOException, InterruptedException {
+        Set<String> loaded = new HashSet<String>();
+        for (SSHUserPrivateKey userPrivateKey : userPrivateKeys) {
+            loadIdentity(userPrivateKey);
+            loaded.add(userPrivateKey.getId());
+            if (!identities.containsKey(userPrivateKey.getId())) {
+                identities.put(userPrivateKey.getId(), 1);
+            }
+        }
+        // on resume, reload whatever nested blocks had added before the restart
+        for (String id : identities.keySet()) {
+            if (!loaded.contains(id)) {
+                final SSHUserPrivateKey c = RunCredentialsCache.lookup(id, build);
+                if (c != null) {
+                    loadIdentity(c);
+                }
+            }
+        }
+
+        listener.getLogger().println(Messages.SSHAgentBuildWrapper_Started());
+        socket = agent.getSocket();
+        if (!sockets.contains(socket)) {
+            sockets.add(socket);
+        }
+    }
+
+    /**
+     * Loads a credential into our agent, timing it.
+     */
+    private void loadIdentity(SSHUserPrivateKey c) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        addIdentities(agent, c);
+        if (timings != null) {
+            timings.record(AgentTimings.IDENTITY, SSHAgentBuildWrapper.description(c), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Uses the agent shared by the blocks of this build with the same credentials on this computer, starting it if
+     * this block is the first one.
+     *
+     * @param resume whether the blocks are resumed after a controller restart, in which case the first one restarts
+     *               the agent on the socket they all used before, so that processes still using it keep working.
+     */
+    private void initSharedAgent(final boolean resume) throws IOException, InterruptedException {
+        final String key = SharedAgents.key(build, nodeName, step.getCredentials());
+        final boolean[] started = new boolean[1];
+        RemoteAgent shared = SharedAgents.acquire(key, new SharedAgents.Starter() {
+            @Override
+            public RemoteAgent start() throws IOException, InterruptedException {
+                if (resume) {
+                    resumeRemoteAgent();
+                } else {
+                    initRemoteAgent();
+                }
+                started[0] = true;
+                return agent;
+            }
+
+            @Override
+            public String getFactoryName() {
+                return factoryName;
+            }
+        });
+        sharedKey = key;
+        if (!started[0]) {
+            resolveCredentials();
+            listener.getLogger().println(Messages.SSHAgentStepExecution_UsingSharedAgent());
+            agent = shared;
+            factoryName = SharedAgents.getFactoryName(key);
+            socket = agent.getSocket();
+            if (!sockets.contains(socket)) {
+                sockets.add(socket);
+            }
+        }
+    }
 
+    /**
+     * Indicates that this block no longer uses the shared agent, which is stopped if this was the last user.
+     */
+    private void releaseShared(TaskListener listener) throws IOException, InterruptedException {
+        String key = sharedKey;
+        sharedKey = null;
+        agent = null;
+        try {
+            if (!SharedAgents.release(key, listener)) {
+                sockets.clear(); // still used by other blocks
+            }
+        } finally {
+            purgeSockets();
+        }
+    }
+
+    /**
+     * Looks up the credentials of the step.
+     *
+     * @return the distinct credentials that could be resolved.
+     */
+    private List<SSHUserPrivateKey> resolveCredentials() throws IOException, InterruptedException {
         List<SSHUserPrivateKey> userPrivateKeys = new ArrayList<SSHUserPrivateKey>();
         for (String id : new LinkedHashSet<String>(step.getCredentials())) {
-            final SSHUserPrivateKey c = CredentialsProvider.findCredentialById(id, SSHUserPrivateKey.class, build);
-            CredentialsProvider.track(build, c);
+            final SSHUserPrivateKey c = RunCredentialsCache.lookup(id, build);
             if (c == null && !step.isIgnoreMissing()) {
                 listener.fatalError(Messages.SSHAgentBuildWrapper_CredentialsNotFound());
             }
@@ -147,62 +411,164 @@ public class SSHAgentStepExecution extends AbstractStepExecutionImpl {
         for (SSHUserPrivateKey userPrivateKey : userPrivateKeys) {
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_UsingCredentials(SSHAgentBuildWrapper.description(userPrivateKey)));
         }
+        return userPrivateKeys;
+    }
 
-        listener.getLogger().println("[ssh-agent] Looking for ssh-agent implementation...");
-        Map<String, Throwable> faults = new LinkedHashMap<String, Throwable>();
-        for (RemoteAgentFactory factory : Jenkins.getActiveInstance().getExtensionList(RemoteAgentFactory.class)) {
-            if (factory.isSupported(launcher, listener)) {
-                try {
-                    listener.getLogger().println("[ssh-agent]   " + factory.getDisplayName());
-                    agent = factory.start(launcher, listener, tempDir(workspace));
-                    break;
-                } catch (Throwable t) {
-                    faults.put(factory.getDisplayName(), t);
+    /**
+     * Checks whether a nested block can borrow our agent rather than start its own.
+     *
+     * @param nested the execution of the nested block.
+     * @return {@code true} if our agent is running on the same computer and workspace as the nested block, and is
+     * not still being restarted after a controller restart.
+     */
+    private synchronized boolean canLendTo(SSHAgentStepExecution nested) {
+        return !isResuming() && agent != null && identities != null && sharedKey == null
+                && nodeName != null && nodeName.equals(nested.nodeName)
+                && workspace != null && nested.workspace != null
+                && workspace.getRemote().equals(nested.workspace.getRemote());
+    }
+
+    /**
+     * Adds the credentials of a nested block to our agent.
+     *
+     * @param keys the credentials of the nested block.
+     * @return the IDs of the credentials acquired, to be passed to {@link #release(List, TaskListener)}.
+     */
+    private synchronized List<String> acquire(List<SSHUserPrivateKey> keys) throws IOException, InterruptedException {
+        List<String> acquired = new ArrayList<String>();
+        try {
+            for (SSHUserPrivateKey key : keys) {
+                Integer count = identities.get(key.getId());
+                if (count == null) {
+                    addIdentities(agent, key);
                 }
+                identities.put(key.getId(), count == null ? 1 : count + 1);
+                acquired.add(key.getId());
             }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            release(acquired, listener);
+            throw e;
         }
-        if (agent == null) {
-            listener.getLogger().println("[ssh-agent] FATAL: Could not find a suitable ssh-agent provider");
-            listener.getLogger().println("[ssh-agent] Diagnostic report");
-            for (Map.Entry<String, Throwable> fault : faults.entrySet()) {
-                listener.getLogger().println("[ssh-agent] * " + fault.getKey());
-                StringWriter sw = new StringWriter();
-                fault.getValue().printStackTrace(new PrintWriter(sw));
-                for (String line : StringUtils.split(sw.toString(), "\n")) {
-                    listener.getLogger().println("[ssh-agent]     " + line);
+        return acquired;
+    }
+
+    /**
+     * Removes the credentials of a nested block from our agent, unless still used by us or another nested block.
+     *
+     * @param ids      the IDs returned by {@link #acquire(List)}.
+     * @param listener the listener of the nested block.
+     */
+    private synchronized void release(List<String> ids, TaskListener listener) throws IOException, InterruptedException {
+        for (String id : ids) {
+            Integer count = identities.get(id);
+            if (count == null) {
+                continue;
+            }
+            if (count > 1) {
+                identities.put(id, count - 1);
+                continue;
+            }
+            identities.remove(id);
+            final SSHUserPrivateKey c = RunCredentialsCache.lookup(id, build);
+            if (agent != null && c != null) {
+                try {
+                    final Secret passphrase = c.getPassphrase();
+                    final String effectivePassphrase = passphrase == null ? null : passphrase.getPlainText();
+                    for (String privateKey : c.getPrivateKeys()) {
+                        agent.removeIdentity(privateKey, effectivePassphrase, SSHAgentBuildWrapper.description(c));
+                    }
+                } catch (IOException e) {
+                    listener.getLogger().println(Messages.SSHAgentStepExecution_CouldNotRemoveIdentity(SSHAgentBuildWrapper.description(c), e.getMessage()));
                 }
             }
-            throw new RuntimeException("[ssh-agent] Could not find a suitable ssh-agent provider.");
         }
+    }
 
-        for (SSHUserPrivateKey userPrivateKey : userPrivateKeys) {
-            final Secret passphrase = userPrivateKey.getPassphrase();
-            final String effectivePassphrase = passphrase == null ? null : passphrase.getPlainText();
-            for (String privateKey : userPrivateKey.getPrivateKeys()) {
-                agent.addIdentity(privateKey, effectivePassphrase, SSHAgentBuildWrapper.description(userPrivateKey));
-            }
+    /**
+     * Gives the credentials this block borrowed back to the enclosing execution.
+     */
+    private void releaseBorrowed(TaskListener listener) throws IOException, InterruptedException {
+        List<String> ids = borrowed;
+        borrowed = null;
+        if (ids != null) {
+            enclosing.release(ids, listener);
         }
+    }
 
-        listener.getLogger().println(Messages.SSHAgentBuildWrapper_Started());
-        socket = agent.getSocket();
-        sockets.add(socket);
+    private static void addIdentities(RemoteAgent agent, SSHUserPrivateKey key) throws IOException, InterruptedException {
+        final Secret passphrase = key.getPassphrase();
+        final String effectivePassphrase = passphrase == null ? null : passphrase.getPlainText();
+        for (String privateKey : key.getPrivateKeys()) {
+            agent.addIdentity(privateKey, effectivePassphrase, SSHAgentBuildWrapper.description(key));
+        }
     }
 
     /**
      * Shuts down the current SSH Agent and purges socket files.
      */
     private void cleanUp() throws Exception {
+        tearDownWhenResumed(getContext().get(TaskListener.class));
+    }
+
+    /**
+     * Calls {@link #tearDown(TaskListener)}, or, if the agent is still being restarted after a controller restart,
+     * arranges for it to be called once it is, so that the CPS VM thread does not wait for the restart.
+     */
+    private void tearDownWhenResumed(final TaskListener listener) throws IOException, InterruptedException {
+        CompletableFuture<Void> pending = resuming;
+        if (pending == null || pending.isDone()) {
+            tearDown(listener);
+            return;
+        }
+        pending.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable failure) {
+                try {
+                    tearDown(listener);
+                } catch (IOException | InterruptedException | RuntimeException x) {
+                    x.printStackTrace(listener.error(Messages.SSHAgentStepExecution_CouldNotStopAgent()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Gives back the agent this block borrowed or shared, or stops our own agent, and purges socket files.
+     */
+    private void tearDown(TaskListener listener) throws IOException, InterruptedException {
+        if (enclosing != null) {
+            releaseBorrowed(listener);
+            return;
+        }
+        if (sharedKey != null) {
+            releaseShared(listener);
+            return;
+        }
         try {
-            TaskListener listener = getContext().get(TaskListener.class);
             if (agent != null) {
-                agent.stop();
-                listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+                stopAgent(listener);
             }
         } finally {
             purgeSockets();
         }
     }
 
+    /**
+     * Stops our agent, timing it.
+     */
+    private void stopAgent(TaskListener listener) throws IOException, InterruptedException {
+        if (timings != null) {
+            timings.collect(agent);
+        }
+        long start = System.nanoTime();
+        agent.stop();
+        listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+        if (timings != null) {
+            timings.record(AgentTimings.STOP, null, System.nanoTime() - start);
+            timings.print(listener);
+        }
+    }
+
     /**
      * Purges all socket files created previously.
      * Especially useful when Jenkins is restarted during the execution of this step.
@@ -214,6 +580,10 @@ public class SSHAgentStepExecution extends AbstractStepExecutionImpl {
             if (socket.exists()) {
                 if (!socket.delete()) {
                     listener.getLogger().format("It was a problem removing this socket file %s", socket.getAbsolutePath());
+                } else if (AgentEventLog.isEnabled()) {
+                    JSONObject fields = new JSONObject();
+                    fields.put("socket", socket.getAbsolutePath());
+                    AgentEventLog.log("purge", nodeName, build == null ? null : build.getExternalizableId(), fields);
                 }
             }
             it.remove();
@@ -221,7 +591,16 @@ public class SSHAgentStepExecution extends AbstractStepExecutionImpl {
     }
 
     /**
-     * Returns the socket.
+     * Checks whether the agent is still being restarted after a controller restart.
+     */
+    private boolean isResuming() {
+        CompletableFuture<Void> pending = resuming;
+        return pending != null && !pending.isDone();
+    }
+
+    /**
+     * Returns the socket. While the agent is being restarted after a controller restart, this is the socket it is
+     * being restarted on, so steps are not held up waiting for the restart.
      *
      * @return The value that SSH_AUTH_SOCK should be set to.
      */
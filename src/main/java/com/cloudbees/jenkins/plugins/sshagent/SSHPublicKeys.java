@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.DSAParams;
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Helper class to render public keys in the OpenSSH wire format.
+ * Must only depend on the JDK as it is used on the remote agents.
+ */
+@Restricted(NoExternalUse.class)
+public final class SSHPublicKeys {
+
+    private SSHPublicKeys() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Returns the OpenSSH key type name of a public key.
+     *
+     * @param key the public key.
+     * @return the key type name, e.g. {@code ssh-rsa}.
+     * @throws IllegalArgumentException if the key type is not supported.
+     */
+    @Nonnull
+    public static String keyType(@Nonnull PublicKey key) {
+        if (key instanceof RSAPublicKey) {
+            return "ssh-rsa";
+        }
+        if (key instanceof DSAPublicKey) {
+            return "ssh-dss";
+        }
+        if (key instanceof ECPublicKey) {
+            return "ecdsa-sha2-" + curveName((ECPublicKey) key);
+        }
+        throw new IllegalArgumentException("Unsupported key type: " + key.getAlgorithm());
+    }
+
+    /**
+     * Encodes a public key as an OpenSSH public key blob (RFC 4253 section 6.6 and RFC 5656 section 3.1).
+     *
+     * @param key the public key.
+     * @return the key blob.
+     * @throws IllegalArgumentException if the key type is not supported.
+     */
+    @Nonnull
+    public static byte[] encode(@Nonnull PublicKey key) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, keyType(key).getBytes(StandardCharsets.US_ASCII));
+            if (key instanceof RSAPublicKey) {
+                RSAPublicKey rsa = (RSAPublicKey) key;
+                writeString(out, rsa.getPublicExponent().toByteArray());
+                writeString(out, rsa.getModulus().toByteArray());
+            } else if (key instanceof DSAPublicKey) {
+                DSAPublicKey dsa = (DSAPublicKey) key;
+                DSAParams params = dsa.getParams();
+                writeString(out, params.getP().toByteArray());
+                writeString(out, params.getQ().toByteArray());
+                writeString(out, params.getG().toByteArray());
+                writeString(out, dsa.getY().toByteArray());
+            } else {
+                ECPublicKey ec = (ECPublicKey) key;
+                int size = (ec.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+                byte[] point = new byte[1 + 2 * size];
+                point[0] = 0x04; // uncompressed
+                unsigned(ec.getW().getAffineX(), point, 1, size);
+                unsigned(ec.getW().getAffineY(), point, 1 + size, size);
+                writeString(out, curveName(ec).getBytes(StandardCharsets.US_ASCII));
+                writeString(out, point);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen with a ByteArrayOutputStream
+        }
+    }
+
+    /**
+     * Renders a public key as an {@code authorized_keys} / {@code .pub} line.
+     *
+     * @param key     the public key.
+     * @param comment the comment or {@code null}.
+     * @return the line, without a trailing newline.
+     */
+    @Nonnull
+    public static String toLine(@Nonnull PublicKey key, @CheckForNull String comment) {
+        String line = keyType(key) + " " + Base64.getEncoder().encodeToString(encode(key));
+        return comment == null ? line : line + " " + comment.replaceAll("\\s+", "_");
+    }
+
+    /**
+     * Computes the OpenSSH SHA-256 fingerprint of a public key blob, as shown by {@code ssh-add -l}.
+     *
+     * @param blob the key blob, as returned by {@link #encode(PublicKey)}.
+     * @return the fingerprint, e.g. {@code SHA256:nThbg6kXUpJWGl7E1IGOCspRomTxdCARLviKw6E5SY8}.
+     */
+    @Nonnull
+    public static String fingerprint(@Nonnull byte[] blob) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(blob);
+            return "SHA256:" + Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    private static String curveName(ECPublicKey key) {
+        int bits = key.getParams().getCurve().getField().getFieldSize();
+        switch (bits) {
+            case 256:
+                return "nistp256";
+            case 384:
+                return "nistp384";
+            case 521:
+                return "nistp521";
+            default:
+                throw new IllegalArgumentException("Unsupported EC field size: " + bits);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static void unsigned(BigInteger value, byte[] dest, int offset, int length) {
+        byte[] raw = value.toByteArray();
+        int skip = raw.length > length ? raw.length - length : 0; // drop sign byte
+        System.arraycopy(raw, skip, dest, offset + length - (raw.length - skip), raw.length - skip);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Registry of the agents shared by {@code sshagent(shared: true)} blocks of a build.
+ * An agent is started by the first block with a given key, and stopped when the last block using it exits.
+ */
+@Restricted(NoExternalUse.class)
+public final class SharedAgents {
+
+    private static final Logger LOGGER = Logger.getLogger(SharedAgents.class.getName());
+
+    /**
+     * The shared agents, keyed by {@link #key(Run, String, List)}.
+     */
+    private static final Map<String, Entry> AGENTS = new HashMap<String, Entry>();
+
+    private SharedAgents() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Starts an agent that can be shared.
+     */
+    interface Starter {
+        /**
+         * Starts the agent and loads the credentials.
+         *
+         * @return the agent.
+         */
+        @Nonnull
+        RemoteAgent start() throws IOException, InterruptedException;
+
+        /**
+         * Gets the factory that started the agent, to restart it with after a controller restart.
+         *
+         * @return the class name of the {@link RemoteAgentFactory}, or {@code null} if unknown.
+         */
+        @CheckForNull
+        String getFactoryName();
+    }
+
+    /**
+     * Computes the key of the agent shared by the blocks of a build running with the same credentials on a computer.
+     *
+     * @param build       the build.
+     * @param nodeName    the name of the computer.
+     * @param credentials the credential IDs.
+     * @return the key.
+     */
+    static String key(@Nonnull Run<?, ?> build, @CheckForNull String nodeName, @Nonnull List<String> credentials) {
+        List<String> ids = new ArrayList<String>(new TreeSet<String>(credentials));
+        return build.getExternalizableId() + '\n' + nodeName + '\n' + ids;
+    }
+
+    /**
+     * Gets the shared agent for a key, starting it if this is the first user.
+     *
+     * @param key     the key.
+     * @param starter starts the agent when there is none yet.
+     * @return the agent.
+     */
+    @Nonnull
+    static RemoteAgent acquire(@Nonnull String key, @Nonnull Starter starter) throws IOException, InterruptedException {
+        while (true) {
+            Entry entry;
+            synchronized (AGENTS) {
+                entry = AGENTS.get(key);
+                if (entry == null) {
+                    entry = new Entry();
+                    AGENTS.put(key, entry);
+                }
+            }
+            synchronized (entry) {
+                if (entry.closed) {
+                    continue; // lost a race with the last release, try again with a fresh entry
+                }
+                if (entry.agent == null) {
+                    try {
+                        entry.agent = starter.start();
+                        entry.factoryName = starter.getFactoryName();
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        entry.closed = true;
+                        remove(key, entry);
+                        throw e;
+                    }
+                }
+                entry.references++;
+                return entry.agent;
+            }
+        }
+    }
+
+    /**
+     * Indicates that a block no longer uses the shared agent, stopping it if it was the last user.
+     *
+     * @param key      the key.
+     * @param listener the listener of the block.
+     * @return {@code true} if the agent was stopped.
+     */
+    static boolean release(@Nonnull String key, @Nonnull TaskListener listener) throws IOException, InterruptedException {
+        Entry entry;
+        synchronized (AGENTS) {
+            entry = AGENTS.get(key);
+        }
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.closed || --entry.references > 0) {
+                return false;
+            }
+            entry.closed = true;
+            remove(key, entry);
+            entry.agent.stop();
+            listener.getLogger().println(Messages.SSHAgentBuildWrapper_Stopped());
+            return true;
+        }
+    }
+
+    /**
+     * Gets the factory that started a shared agent.
+     *
+     * @param key the key.
+     * @return the class name of the {@link RemoteAgentFactory}, or {@code null} if unknown or no longer shared.
+     */
+    @CheckForNull
+    static String getFactoryName(@Nonnull String key) {
+        Entry entry;
+        synchronized (AGENTS) {
+            entry = AGENTS.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return entry.factoryName;
+        }
+    }
+
+    private static void remove(String key, Entry entry) {
+        synchronized (AGENTS) {
+            if (AGENTS.get(key) == entry) {
+                AGENTS.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A shared agent.
+     */
+    private static final class Entry {
+        private RemoteAgent agent;
+        private String factoryName;
+        private int references;
+        private boolean closed;
+    }
+
+    /**
+     * Stops any shared agent left behind by a build that did not release it, e.g. after a hard kill.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @Nonnull TaskListener listener) {
+            String prefix = run.getExternalizableId() + '\n';
+            List<Entry> leftovers = new ArrayList<Entry>();
+            synchronized (AGENTS) {
+                for (Iterator<Map.Entry<String, Entry>> it = AGENTS.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, Entry> e = it.next();
+                    if (e.getKey().startsWith(prefix)) {
+                        leftovers.add(e.getValue());
+                        it.remove();
+                    }
+                }
+            }
+            for (Entry entry : leftovers) {
+                synchronized (entry) {
+                    if (entry.closed || entry.agent == null) {
+                        continue;
+                    }
+                    entry.closed = true;
+                    try {
+                        entry.agent.stop();
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not stop shared ssh-agent of " + run, e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -25,16 +25,26 @@
 package com.cloudbees.jenkins.plugins.sshagent.exec;
 
 import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.SSHPublicKeys;
+import com.cloudbees.jenkins.plugins.sshagent.jfr.AgentEvents;
+import com.cloudbees.jenkins.plugins.sshagent.jfr.FlightRecorder;
 import hudson.AbortException;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.UnrecoverableKeyException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import jenkins.bouncycastle.api.PEMEncodable;
 
 
 /**
@@ -43,6 +53,7 @@ import java.util.concurrent.TimeUnit;
 public class ExecRemoteAgent implements RemoteAgent {
     private static final String AuthSocketVar = "SSH_AUTH_SOCK";
     private static final String AgentPidVar = "SSH_AGENT_PID";
+    private static final Pattern PEM_HEADER = Pattern.compile("-----BEGIN ([A-Z0-9 ]*?)\\s*PRIVATE KEY-----");
     
     private final Launcher launcher;
     
@@ -62,21 +73,37 @@ public class ExecRemoteAgent implements RemoteAgent {
     private final Map<String, String> agentEnv;
 
     ExecRemoteAgent(Launcher launcher, TaskListener listener, FilePath temp) throws Exception {
+        this(launcher, listener, temp, null);
+    }
+
+    /**
+     * Starts {@code ssh-agent}.
+     *
+     * @param socket the socket to bind, replacing any stale socket file, or {@code null} to let ssh-agent pick one.
+     */
+    ExecRemoteAgent(Launcher launcher, TaskListener listener, FilePath temp, @CheckForNull String socket) throws Exception {
         this.launcher = launcher;
         this.listener = listener;
         this.temp = temp;
 
+        FlightRecorder.Pending event = AgentEvents.AGENT_START.begin();
+        ArgumentListBuilder cmd = new ArgumentListBuilder("ssh-agent");
+        if (socket != null) {
+            new FilePath(launcher.getChannel(), socket).delete();
+            cmd.add("-a").add(socket);
+        }
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        if (launcher.launch().cmds("ssh-agent").stdout(baos).start().joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
+        if (launcher.launch().cmds(cmd).stdout(baos).start().joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
             throw new AbortException("Failed to run ssh-agent");
         }
         agentEnv = parseAgentEnv(new String(baos.toByteArray(), StandardCharsets.US_ASCII)); // TODO could include local filenames, better to look up remote charset
         
         if (agentEnv.containsKey(AuthSocketVar)) {
-            socket = agentEnv.get(AuthSocketVar);
+            this.socket = agentEnv.get(AuthSocketVar);
         } else {
             throw new AbortException(AuthSocketVar + " was not included");
         }
+        event.commit(this.socket, "ssh-agent");
     }
 
     /**
@@ -92,6 +119,7 @@ public class ExecRemoteAgent implements RemoteAgent {
      */
     @Override
     public void addIdentity(String privateKey, final String passphrase, String comment) throws IOException, InterruptedException {
+        FlightRecorder.Pending event = AgentEvents.IDENTITY_LOAD.begin();
         FilePath keyFile = temp.createTextTempFile("private_key_", ".key", privateKey);
         try {
             keyFile.chmod(0600);
@@ -120,6 +148,30 @@ public class ExecRemoteAgent implements RemoteAgent {
         } finally {
             keyFile.delete();
         }
+        event.commit(keyType(privateKey));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeIdentity(String privateKey, final String passphrase, String comment) throws IOException, InterruptedException {
+        PublicKey publicKey;
+        try {
+            publicKey = PEMEncodable.decode(privateKey, passphrase == null ? null : passphrase.toCharArray()).toKeyPair().getPublic();
+        } catch (UnrecoverableKeyException e) {
+            throw new IOException("Could not decode private key", e);
+        }
+        // ssh-add -d needs the public key, which it cannot derive from an encrypted private key
+        FilePath keyFile = temp.createTextTempFile("public_key_", ".pub", SSHPublicKeys.toLine(publicKey, comment) + "\n");
+        try {
+            launcher.getListener().getLogger().println("Running ssh-add -d (command line suppressed)");
+            if (launcher.launch().quiet(true).cmds("ssh-add", "-d", keyFile.getRemote()).envs(agentEnv).stdout(listener).start().joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
+                throw new AbortException("Failed to run ssh-add -d");
+            }
+        } finally {
+            keyFile.delete();
+        }
     }
 
     /**
@@ -127,9 +179,23 @@ public class ExecRemoteAgent implements RemoteAgent {
      */
     @Override
     public void stop() throws IOException, InterruptedException {
+        FlightRecorder.Pending event = AgentEvents.AGENT_STOP.begin();
         if (launcher.launch().cmds("ssh-agent", "-k").envs(agentEnv).stdout(listener).start().joinWithTimeout(1, TimeUnit.MINUTES, listener) != 0) {
             throw new AbortException("Failed to run ssh-agent -k");
         }
+        event.commit(socket, "ssh-agent");
+    }
+
+    /**
+     * Tells the key type from the PEM header of a private key, as ssh-add decodes it rather than us.
+     */
+    private static String keyType(String privateKey) {
+        Matcher m = PEM_HEADER.matcher(privateKey);
+        if (!m.find()) {
+            return "unknown";
+        }
+        String type = m.group(1).trim();
+        return type.isEmpty() ? "PKCS8" : type;
     }
     
     /**
@@ -63,13 +63,12 @@ public class ExecRemoteAgentFactory extends RemoteAgentFactory {
              */
             return (status == 0) || (status == 1);
         } catch (IOException e) {
-            e.printStackTrace();
             listener.getLogger().println("Could not find ssh-agent: IOException: " + e.getMessage());
             listener.getLogger().println("Check if ssh-agent is installed and in PATH");
             return false;
         } catch (InterruptedException e) {
-            e.printStackTrace();
-            listener.getLogger().println("Could not find ssh-agent: InterruptedException: " + e.getMessage());          
+            // cancelled, typically because another provider answered first: not a reason to complain
+            Thread.currentThread().interrupt();
             return false;
         }
     }
@@ -81,4 +80,12 @@ public class ExecRemoteAgentFactory extends RemoteAgentFactory {
     public RemoteAgent start(Launcher launcher, final TaskListener listener, FilePath temp) throws Throwable {
         return new ExecRemoteAgent(launcher, listener, temp);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RemoteAgent resume(Launcher launcher, TaskListener listener, FilePath temp, String socket) throws Throwable {
+        return new ExecRemoteAgent(launcher, listener, temp, socket);
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.sshagent.jdk;
+
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteHelper;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * A factory that serves the built-in {@link com.cloudbees.jenkins.plugins.sshagent.jna.LocalAgent} through an
+ * {@link com.cloudbees.jenkins.plugins.sshagent.jna.AgentServer} over the unix domain sockets of the JDK, available
+ * from Java 16 on. Needs no native library, so it is tried before the JNR one.
+ *
+ * @since 1.18
+ */
+@Extension(ordinal = 1)
+public class JDKRemoteAgentFactory extends RemoteAgentFactory {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDisplayName() {
+        return "Java/JDK ssh-agent";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSupported(Launcher launcher, final TaskListener listener) {
+        if (!launcher.isUnix()) {
+            return false;
+        }
+        try {
+            return launcher.getChannel().call(new UnixDomainSocketsAvailable());
+        } catch (Throwable throwable) {
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RemoteAgent start(Launcher launcher, final TaskListener listener, FilePath temp) throws Throwable {
+        return resume(launcher, listener, temp, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RemoteAgent resume(Launcher launcher, TaskListener listener, FilePath temp, String socket) throws Throwable {
+        RemoteHelper.registerBouncyCastle(launcher.getChannel(), listener);
+
+        return launcher.getChannel().call(new JDKRemoteAgentStarter(listener, temp != null ? temp.getRemote() : null, socket));
+    }
+
+    private static class UnixDomainSocketsAvailable extends MasterToSlaveCallable<Boolean, RuntimeException> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * {@inheritDoc}
+         */
+        public Boolean call() {
+            return JDKTransport.isAvailable();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.sshagent.jdk;
+
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentHandle;
+import com.cloudbees.jenkins.plugins.sshagent.jna.JNRRemoteAgent;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import java.io.File;
+import javax.annotation.CheckForNull;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Callable to start the remote agent.
+ */
+public class JDKRemoteAgentStarter extends MasterToSlaveCallable<RemoteAgent, Throwable> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Need to pass this through.
+     */
+    private final TaskListener listener;
+
+    private final @CheckForNull String tempDir;
+
+    /**
+     * The socket to bind, or {@code null} to create a new one.
+     */
+    private final @CheckForNull String socket;
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener to pass to the agent.
+     * @param tempDir the directory to create the socket in.
+     * @param socket the socket to bind, or {@code null} to create a new one.
+     */
+    public JDKRemoteAgentStarter(TaskListener listener, @CheckForNull String tempDir, @CheckForNull String socket) {
+        this.listener = listener;
+        this.tempDir = tempDir;
+        this.socket = socket;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RemoteAgent call() throws Throwable {
+        final JNRRemoteAgent instance = new JNRRemoteAgent(listener, tempDir != null ? new File(tempDir) : null, socket,
+                JDKTransport.INSTANCE);
+        final Channel channel = Channel.current();
+        return channel == null ? instance : RemoteAgentHandle.register(channel, instance);
+    }
+
+}
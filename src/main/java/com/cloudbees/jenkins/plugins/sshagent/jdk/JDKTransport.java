@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.sshagent.jdk;
+
+import com.cloudbees.jenkins.plugins.sshagent.jna.AgentServer;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import javax.annotation.CheckForNull;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Unix domain sockets provided by the JDK itself, from Java 16 on.
+ * The Java 16 API is reached through reflection as the plugin is built for Java 8.
+ */
+public final class JDKTransport implements AgentServer.Transport {
+
+    /**
+     * {@code ServerSocketChannel.open(ProtocolFamily)}, or {@code null} if unix domain sockets are not supported.
+     */
+    @CheckForNull
+    private static final Method OPEN;
+
+    /**
+     * {@code UnixDomainSocketAddress.of(String)}.
+     */
+    @CheckForNull
+    private static final Method ADDRESS_OF;
+
+    @CheckForNull
+    private static final ProtocolFamily UNIX;
+
+    static {
+        Method open = null;
+        Method addressOf = null;
+        ProtocolFamily unix = null;
+        try {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            open = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            open = null; // before Java 16
+        }
+        OPEN = open;
+        ADDRESS_OF = addressOf;
+        UNIX = unix;
+    }
+
+    public static final JDKTransport INSTANCE = new JDKTransport();
+
+    private JDKTransport() {
+    }
+
+    /**
+     * Checks if this JVM supports unix domain sockets.
+     *
+     * @return {@code true} on Java 16 and later.
+     */
+    public static boolean isAvailable() {
+        return OPEN != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SelectableChannel bind(String path) throws IOException {
+        if (OPEN == null || ADDRESS_OF == null) {
+            throw new IOException("Unix domain sockets require Java 16 or later");
+        }
+        ServerSocketChannel channel;
+        try {
+            channel = (ServerSocketChannel) OPEN.invoke(null, UNIX);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        }
+        boolean bound = false;
+        try {
+            channel.configureBlocking(false);
+            channel.bind((SocketAddress) ADDRESS_OF.invoke(null, path));
+            Files.setPosixFilePermissions(Paths.get(path),
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+            bound = true;
+            return channel;
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw unwrap(e);
+        } finally {
+            if (!bound) {
+                IOUtils.closeQuietly(channel);
+            }
+        }
+    }
+
+    private static IOException unwrap(InvocationTargetException e) {
+        return e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Selector openSelector() throws IOException {
+        return Selector.open();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SelectableChannel accept(SelectableChannel server) throws IOException {
+        return ((ServerSocketChannel) server).accept();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent.jfr;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The JFR events of the plugin, named {@code com.cloudbees.jenkins.plugins.sshagent.*} in recordings.
+ */
+@Restricted(NoExternalUse.class)
+public final class AgentEvents {
+
+    /**
+     * An agent started, timed: socket, implementation.
+     */
+    public static final FlightRecorder.Definition AGENT_START = FlightRecorder.define(
+            "AgentStart", "SSH Agent Start", "An ssh-agent was started",
+            "socket", String.class, "implementation", String.class);
+
+    /**
+     * An agent stopped, timed: socket, implementation.
+     */
+    public static final FlightRecorder.Definition AGENT_STOP = FlightRecorder.define(
+            "AgentStop", "SSH Agent Stop", "An ssh-agent was stopped",
+            "socket", String.class, "implementation", String.class);
+
+    /**
+     * A private key was decoded and loaded, timed by the decoding: key type.
+     */
+    public static final FlightRecorder.Definition IDENTITY_LOAD = FlightRecorder.define(
+            "IdentityLoad", "SSH Agent Identity Load", "A private key was decoded and added to an ssh-agent",
+            "keyType", String.class);
+
+    /**
+     * A client connected: socket.
+     */
+    public static final FlightRecorder.Definition SESSION_ACCEPT = FlightRecorder.define(
+            "SessionAccept", "SSH Agent Session Accept", "A client connected to an ssh-agent",
+            "socket", String.class);
+
+    /**
+     * A client disconnected or was disconnected: socket.
+     */
+    public static final FlightRecorder.Definition SESSION_CLOSE = FlightRecorder.define(
+            "SessionClose", "SSH Agent Session Close", "A client of an ssh-agent was disconnected",
+            "socket", String.class);
+
+    /**
+     * A sign request was answered, timed: key type, number of bytes signed.
+     */
+    public static final FlightRecorder.Definition SIGN = FlightRecorder.define(
+            "Sign", "SSH Agent Sign", "An ssh-agent signed data for a client",
+            "keyType", String.class, "bytes", int.class);
+
+    private AgentEvents() {
+        throw new IllegalAccessError("Utility class");
+    }
+}
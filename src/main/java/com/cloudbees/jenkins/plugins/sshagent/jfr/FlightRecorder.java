@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent.jfr;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Emits Java Flight Recorder events when the JVM has JFR, and does nothing otherwise.
+ * The plugin targets Java 8, where {@code jdk.jfr} may not exist, so event types are defined at runtime with
+ * {@code jdk.jfr.EventFactory} through reflection rather than as {@code jdk.jfr.Event} subclasses.
+ * While recording is off an event costs one {@code EventType.isEnabled()} check.
+ */
+@Restricted(NoExternalUse.class)
+public final class FlightRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(FlightRecorder.class.getName());
+
+    /**
+     * Set to {@code false} with a system property to never define any event type.
+     */
+    private static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty(FlightRecorder.class.getName() + ".ENABLED", "true"));
+
+    /**
+     * The reflective access to {@code jdk.jfr}, or {@code null} if JFR is not available.
+     */
+    @CheckForNull
+    private static final Api API = ENABLED ? Api.load() : null;
+
+    private FlightRecorder() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    /**
+     * Checks whether JFR events can be emitted by this JVM.
+     *
+     * @return {@code true} if {@code jdk.jfr} is available.
+     */
+    public static boolean isAvailable() {
+        return API != null;
+    }
+
+    /**
+     * Defines an event type.
+     *
+     * @param name        the event name, prefixed with the plugin package.
+     * @param label       the human readable name.
+     * @param description what the event means.
+     * @param fields      the names and types of the fields, alternately, e.g. {@code "socket", String.class}.
+     * @return the event type, which does nothing if JFR is not available.
+     */
+    @Nonnull
+    static Definition define(@Nonnull String name, @Nonnull String label, @Nonnull String description,
+                             @Nonnull Object... fields) {
+        Api api = API;
+        if (api == null) {
+            return new Definition(null, null, 0);
+        }
+        try {
+            Object factory = api.create("com.cloudbees.jenkins.plugins.sshagent." + name, label, description, fields);
+            return new Definition(factory, api.getEventType.invoke(factory), fields.length / 2);
+        } catch (Throwable t) {
+            LOGGER.log(Level.FINE, "Could not define JFR event " + name, t);
+            return new Definition(null, null, 0);
+        }
+    }
+
+    /**
+     * An event type.
+     */
+    public static final class Definition {
+        @CheckForNull
+        private final Object factory;
+        @CheckForNull
+        private final Object type;
+        private final int fields;
+
+        Definition(@CheckForNull Object factory, @CheckForNull Object type, int fields) {
+            this.factory = factory;
+            this.type = type;
+            this.fields = fields;
+        }
+
+        /**
+         * Checks whether events of this type are being recorded.
+         *
+         * @return {@code true} if a recording has this event type enabled.
+         */
+        public boolean isEnabled() {
+            if (type == null) {
+                return false;
+            }
+            try {
+                return (boolean) API.isEnabled.invoke(type);
+            } catch (Throwable t) {
+                return false;
+            }
+        }
+
+        /**
+         * Starts timing an event.
+         *
+         * @return the event, to be committed; a no-op if this event type is not being recorded.
+         */
+        @Nonnull
+        public Pending begin() {
+            if (!isEnabled()) {
+                return Pending.NONE;
+            }
+            try {
+                Object event = API.newEvent.invoke(factory);
+                API.begin.invoke(event);
+                return new Pending(event, fields);
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Could not begin JFR event", t);
+                return Pending.NONE;
+            }
+        }
+
+        /**
+         * Emits an event without a duration.
+         *
+         * @param values the values of the fields, in the order they were defined.
+         */
+        public void emit(Object... values) {
+            if (isEnabled()) {
+                begin().commit(values);
+            }
+        }
+    }
+
+    /**
+     * An event being timed.
+     */
+    public static final class Pending {
+        static final Pending NONE = new Pending(null, 0);
+
+        @CheckForNull
+        private final Object event;
+        private final int fields;
+
+        Pending(@CheckForNull Object event, int fields) {
+            this.event = event;
+            this.fields = fields;
+        }
+
+        /**
+         * Stops timing the event, before it is committed.
+         */
+        public void end() {
+            if (event == null) {
+                return;
+            }
+            try {
+                API.end.invoke(event);
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Could not end JFR event", t);
+            }
+        }
+
+        /**
+         * Records the event.
+         *
+         * @param values the values of the fields, in the order they were defined.
+         */
+        public void commit(Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < fields && i < values.length; i++) {
+                    API.set.invoke(event, i, values[i]);
+                }
+                API.commit.invoke(event);
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Could not commit JFR event", t);
+            }
+        }
+    }
+
+    /**
+     * The parts of {@code jdk.jfr} used, looked up once.
+     */
+    private static final class Api {
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final Class<?> nameAnnotation;
+        private final Class<?> labelAnnotation;
+        private final Class<?> descriptionAnnotation;
+        private final Class<?> categoryAnnotation;
+        private final MethodHandle createFactory;
+        private final MethodHandle getEventType;
+        private final MethodHandle newEvent;
+        private final MethodHandle isEnabled;
+        private final MethodHandle begin;
+        private final MethodHandle end;
+        private final MethodHandle set;
+        private final MethodHandle commit;
+
+        private Api() throws ReflectiveOperationException {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> eventType = Class.forName("jdk.jfr.EventType");
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+            nameAnnotation = Class.forName("jdk.jfr.Name");
+            labelAnnotation = Class.forName("jdk.jfr.Label");
+            descriptionAnnotation = Class.forName("jdk.jfr.Description");
+            categoryAnnotation = Class.forName("jdk.jfr.Category");
+            createFactory = lookup.unreflect(factory.getMethod("create", List.class, List.class));
+            getEventType = lookup.unreflect(factory.getMethod("getEventType"));
+            newEvent = lookup.unreflect(factory.getMethod("newEvent"));
+            isEnabled = lookup.unreflect(eventType.getMethod("isEnabled"));
+            begin = lookup.unreflect(event.getMethod("begin"));
+            end = lookup.unreflect(event.getMethod("end"));
+            set = lookup.unreflect(event.getMethod("set", int.class, Object.class));
+            commit = lookup.unreflect(event.getMethod("commit"));
+        }
+
+        @CheckForNull
+        static Api load() {
+            try {
+                return new Api();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                LOGGER.log(Level.FINE, "JFR is not available, no events will be emitted", e);
+                return null;
+            }
+        }
+
+        Object create(String name, String label, String description, Object[] fields) throws Throwable {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotationElement.newInstance(nameAnnotation, name));
+            annotations.add(annotationElement.newInstance(labelAnnotation, label));
+            annotations.add(annotationElement.newInstance(descriptionAnnotation, description));
+            annotations.add(annotationElement.newInstance(categoryAnnotation, new String[]{"Jenkins", "SSH Agent"}));
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                values.add(valueDescriptor.newInstance(fields[i + 1], fields[i]));
+            }
+            return createFactory.invoke(annotations, values);
+        }
+    }
+}
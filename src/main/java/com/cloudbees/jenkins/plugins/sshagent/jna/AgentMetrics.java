@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentStatistics;
+import com.cloudbees.jenkins.plugins.sshagent.LatencyHistogram;
+import com.cloudbees.jenkins.plugins.sshagent.SSHPublicKeys;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of an {@link AgentServer}, updated without locking from the selector thread and read from any thread.
+ */
+final class AgentMetrics {
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    /**
+     * The number of requests by message type.
+     */
+    private final AtomicLongArray requests = new AtomicLongArray(256);
+    /**
+     * The number of signatures by key blob.
+     */
+    private final ConcurrentMap<ByteBuffer, LongAdder> signatures = new ConcurrentHashMap<ByteBuffer, LongAdder>();
+    /**
+     * How long signing took, in microseconds.
+     */
+    private final LatencyHistogram signLatency = new LatencyHistogram();
+
+    void connected() {
+        connections.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void read(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void written(int bytes) {
+        bytesOut.add(bytes);
+    }
+
+    void request(int type) {
+        requests.incrementAndGet(type & 0xff);
+    }
+
+    void signed(byte[] blob, long nanos) {
+        LongAdder count = signatures.get(ByteBuffer.wrap(blob));
+        if (count == null) {
+            LongAdder created = new LongAdder();
+            count = signatures.putIfAbsent(ByteBuffer.wrap(blob), created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.increment();
+        signLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    long connections() {
+        return connections.sum();
+    }
+
+    long requests() {
+        long total = 0;
+        for (int i = 0; i < requests.length(); i++) {
+            total += requests.get(i);
+        }
+        return total;
+    }
+
+    AgentStatistics snapshot() {
+        Map<String, Long> byType = new HashMap<String, Long>();
+        for (int i = 0; i < requests.length(); i++) {
+            long count = requests.get(i);
+            if (count > 0) {
+                byType.put(AgentStatistics.requestName(i), count);
+            }
+        }
+        Map<String, Long> byKey = new HashMap<String, Long>();
+        for (Map.Entry<ByteBuffer, LongAdder> e : signatures.entrySet()) {
+            ByteBuffer blob = e.getKey().duplicate();
+            byte[] bytes = new byte[blob.remaining()];
+            blob.get(bytes);
+            byKey.put(SSHPublicKeys.fingerprint(bytes), e.getValue().sum());
+        }
+        return new AgentStatistics(connections.sum(), errors.sum(), bytesIn.sum(), bytesOut.sum(), byType, byKey,
+                signLatency.getPercentile(50), signLatency.getPercentile(99), signLatency.getPercentile(100));
+    }
+}
@@ -18,56 +18,194 @@
  */
 package com.cloudbees.jenkins.plugins.sshagent.jna;
 
+import com.cloudbees.jenkins.plugins.sshagent.AgentStatistics;
+import com.cloudbees.jenkins.plugins.sshagent.jfr.AgentEvents;
+import com.cloudbees.jenkins.plugins.sshagent.jfr.FlightRecorder;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import jnr.enxio.channels.NativeSelectorProvider;
 import jnr.posix.POSIXFactory;
-import jnr.unixsocket.UnixServerSocket;
 import jnr.unixsocket.UnixServerSocketChannel;
 import jnr.unixsocket.UnixSocketAddress;
-import jnr.unixsocket.UnixSocketChannel;
 import org.apache.commons.io.FileUtils;
 import org.apache.sshd.agent.SshAgent;
 import org.apache.sshd.agent.common.AbstractAgentClient;
-import org.apache.sshd.agent.local.AgentImpl;
 import org.apache.sshd.common.util.OsUtils;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.apache.sshd.common.util.buffer.Buffer;
 import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 
 
 /**
  * A server for an SSH Agent. Portions of this code were copied directly from Apache MINA's SSH implementation.
  */
-public class AgentServer {
+public class AgentServer implements AgentServerMBean {
+
+    /**
+     * The directory to create sockets in instead of the temporary directory of the workspace, typically on a tmpfs
+     * such as {@code /run/user/<uid>} or {@code /dev/shm}, set with a system property on the node.
+     * Sockets outside of the workspace cannot be seen by containers started by the build.
+     * As such directories are usually shared, sockets are created in a subdirectory only the user running the node
+     * can enter, see {@link #runtimeDir(String)}.
+     */
+    private static final String RUNTIME_DIR = System.getProperty(AgentServer.class.getName() + ".RUNTIME_DIR");
+
+    /**
+     * How long, in milliseconds, {@link #close()} keeps serving the connected clients once the socket is deleted, set
+     * with a system property on the node. Clients are disconnected as soon as none has a request left to read or only
+     * partly received, so idle clients are disconnected at once.
+     */
+    private static final long DRAIN_TIMEOUT = Long.getLong(AgentServer.class.getName() + ".DRAIN_TIMEOUT", 5000);
+
+    /**
+     * How long, in milliseconds, a client may stay connected without sending anything, set with a system property on
+     * the node; {@code 0} to never disconnect idle clients. Read when a server is created.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "lowered by tests")
+    static long IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(
+            Long.getLong(AgentServer.class.getName() + ".IDLE_TIMEOUT", 300));
+
+    /**
+     * The maximum number of clients connected at the same time, set with a system property on the node; further
+     * clients wait in the listen backlog. {@code 0}, the default, for no limit. Read when a server is created.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "lowered by tests")
+    static int MAX_SESSIONS = Integer.getInteger(AgentServer.class.getName() + ".MAX_SESSIONS", 0);
+
+    /**
+     * The maximum number of clients accepted per second, set with a system property on the node. {@code 0}, the
+     * default, for no limit. Read when a server is created.
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "lowered by tests")
+    static int ACCEPT_RATE = Integer.getInteger(AgentServer.class.getName() + ".ACCEPT_RATE", 0);
+
+    /**
+     * Whether running agents are registered as MBeans, set with a system property on the node.
+     */
+    private static final boolean JMX = Boolean.parseBoolean(
+            System.getProperty(AgentServer.class.getName() + ".JMX", "true"));
 
     private final SshAgent agent;
+    private final Transport transport;
+    /**
+     * When the server started, in milliseconds since the epoch.
+     */
+    private volatile long startedAt;
+    /**
+     * The name of our MBean, while registered.
+     */
+    private @CheckForNull ObjectName objectName;
     private String authSocket;
     private Thread thread;
-    private UnixSocketAddress address;
-    private UnixServerSocketChannel channel;
-    private UnixServerSocket socket;
+    private SelectableChannel channel;
     private Selector selector;
     private volatile boolean selectable = true;
+    /**
+     * The number of connected clients.
+     */
+    private int sessions;
+    /**
+     * Until when, in milliseconds, the selector thread serves the connected clients after the listen socket is
+     * closed, or {@code 0} while not closing.
+     */
+    private volatile long drainUntil;
+    /**
+     * Whether the selector thread has stopped.
+     */
+    private boolean stopped;
+    /**
+     * Whether the selector thread stopped with no request left to read or only partly received.
+     */
+    private boolean drained;
+    /**
+     * The key of the listen socket, whose interest is dropped while too many clients are connected.
+     */
+    private SelectionKey acceptKey;
+    /**
+     * The maximum number of clients connected at the same time, or {@code 0} for no limit.
+     */
+    private final int maxSessions = MAX_SESSIONS;
+    /**
+     * The accept rate token bucket, only used by the selector thread.
+     */
+    private final @CheckForNull AcceptRate acceptRate = ACCEPT_RATE > 0
+            ? new AcceptRate(ACCEPT_RATE, System.currentTimeMillis())
+            : null;
+    /**
+     * Until when accepting is paused by the accept rate, only used by the selector thread.
+     */
+    private long acceptPausedUntil;
+    /**
+     * How long a client may stay connected without sending anything, in milliseconds.
+     */
+    private final long idleTimeout = IDLE_TIMEOUT;
+    /**
+     * The idle timeouts of the connected clients, only used by the selector thread.
+     */
+    private final @CheckForNull TimingWheel<SshAgentSessionSocketHandler> idle = idleTimeout > 0
+            ? new TimingWheel<SshAgentSessionSocketHandler>(64, Math.max(100, idleTimeout / 64), System.currentTimeMillis())
+            : null;
     private final @CheckForNull File temp;
+    /**
+     * What the clients asked for.
+     */
+    private final AgentMetrics metrics = new AgentMetrics();
 
     public AgentServer(File temp) {
-        this(new AgentImpl(), temp);
+        this(new LocalAgent(), temp);
     }
 
     public AgentServer(SshAgent agent, File temp) {
+        this(agent, temp, JNRTransport.INSTANCE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param agent     the agent to serve.
+     * @param temp      the directory to create the socket in.
+     * @param transport the unix socket implementation.
+     * @since 1.18
+     */
+    public AgentServer(SshAgent agent, File temp, Transport transport) {
         this.agent = agent;
         this.temp = temp;
+        this.transport = transport;
     }
 
     public SshAgent getAgent() {
@@ -75,17 +213,29 @@ public class AgentServer {
     }
 
     public String start() throws Exception {
-        authSocket = createLocalSocketAddress();
-        address = new UnixSocketAddress(new File(authSocket));
-        channel = UnixServerSocketChannel.open();
-        channel.configureBlocking(false);
-        socket = channel.socket();
-        socket.bind(address);
-        selector = NativeSelectorProvider.getInstance().openSelector();
+        return start(null);
+    }
 
-        channel.register(selector, SelectionKey.OP_ACCEPT, new SshAgentServerSocketHandler());
+    /**
+     * Starts the server.
+     *
+     * @param path the socket to bind, replacing any stale socket file, or {@code null} to create a new one.
+     * @return the socket.
+     * @throws Exception if the server could not start.
+     */
+    public String start(@CheckForNull String path) throws Exception {
+        FlightRecorder.Pending event = AgentEvents.AGENT_START.begin();
+        if (path != null) {
+            FileUtils.deleteQuietly(new File(path));
+            authSocket = path;
+        } else {
+            authSocket = createLocalSocketAddress();
+        }
+        channel = transport.bind(authSocket);
+        selector = transport.openSelector();
+
+        acceptKey = channel.register(selector, SelectionKey.OP_ACCEPT, new SshAgentServerSocketHandler());
 
-        POSIXFactory.getPOSIX().chmod(authSocket, 0600);
         if (!new File(authSocket).exists()) {
             throw new IllegalStateException("failed to create " + authSocket + " of length " + authSocket.length() + " (check UNIX_PATH_MAX)");
         }
@@ -93,9 +243,42 @@ public class AgentServer {
         thread = new Thread(new AgentSocketAcceptor(), "SSH Agent socket acceptor " +  authSocket);
         thread.setDaemon(true);
         thread.start();
+        startedAt = System.currentTimeMillis();
+        register();
+        event.commit(authSocket, transport.getClass().getSimpleName());
         return authSocket;
     }
 
+    /**
+     * Registers our MBean, if enabled.
+     */
+    private void register() {
+        if (!JMX) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(
+                    "com.cloudbees.jenkins.plugins.sshagent:type=AgentServer,socket=" + ObjectName.quote(authSocket));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not register the MBean of " + authSocket, e);
+        }
+    }
+
+    private void unregister() {
+        ObjectName name = objectName;
+        objectName = null;
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not unregister the MBean of " + authSocket, e);
+        }
+    }
+
     final class AgentSocketAcceptor implements Runnable {
         public void run() {
             try {
@@ -103,7 +286,16 @@ public class AgentServer {
                     // The select() will be woke up if some new connection
                     // have occurred, or if the selector has been explicitly
                     // woke up
-                    if (selector.select() > 0) {
+                    long drainBy = drainUntil;
+                    int ready;
+                    if (drainBy == 0) {
+                        ready = selector.select(selectTimeout());
+                    } else if (hasPartialRequests()) {
+                        ready = selector.select(Math.max(1, drainBy - System.currentTimeMillis()));
+                    } else {
+                        ready = selector.selectNow();
+                    }
+                    if (ready > 0) {
                         Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
 
                         while(selectedKeys.hasNext()) {
@@ -116,12 +308,30 @@ public class AgentServer {
                             }
                         }
                     }
+                    if (drainBy != 0) {
+                        if (ready == 0 && !hasPartialRequests()) {
+                            drained = true;
+                            break;
+                        }
+                        if (System.currentTimeMillis() >= drainBy) {
+                            LOGGER.log(Level.FINE, "Closing {0} with requests unanswered", authSocket);
+                            break;
+                        }
+                    }
+                    if (idle != null) {
+                        for (SshAgentSessionSocketHandler session : idle.expire(System.currentTimeMillis())) {
+                            LOGGER.log(Level.FINE, "Closing idle client of {0}", authSocket);
+                            session.close();
+                        }
+                    }
+                    updateAcceptInterest();
                 }
 
             } catch (IOException ioe) {
                 LOGGER.log(Level.WARNING, "Error while waiting for events", ioe);
             } finally {
-                if (selectable) {
+                selectorStopped();
+                if (selectable && drainUntil == 0) {
                     LOGGER.log(Level.WARNING, "Unexpected death of thread {0}",
                             Thread.currentThread().getName());
                 } else {
@@ -132,29 +342,158 @@ public class AgentServer {
         }
     }
 
-    @SuppressFBWarnings(value="RV_RETURN_VALUE_IGNORED_BAD_PRACTICE", justification="createTempFile will fail anyway if there is a problem with mkdirs")
+    /**
+     * Checks whether a client has sent part of a request. Must be called from the selector thread.
+     */
+    private boolean hasPartialRequests() {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof SshAgentSessionSocketHandler
+                    && ((SshAgentSessionSocketHandler) attachment).isPartial()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes how long the selector may block: until the next idle timeout tick or the end of an accept pause.
+     */
+    private long selectTimeout() {
+        long timeout = idle == null ? 0 : idle.getTickMillis();
+        if (acceptPausedUntil != 0) {
+            long pause = Math.max(1, acceptPausedUntil - System.currentTimeMillis());
+            timeout = timeout == 0 ? pause : Math.min(timeout, pause);
+        }
+        return timeout;
+    }
+
+    /**
+     * Takes a token from the accept rate bucket, pausing accepts when it runs out.
+     */
+    private void acceptRateLimit() {
+        if (acceptRate != null) {
+            acceptPausedUntil = acceptRate.take(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Polls the listen socket only while more clients may be accepted, leaving the others in the listen backlog.
+     * Must be called from the selector thread.
+     */
+    private void updateAcceptInterest() {
+        if (acceptKey == null || !acceptKey.isValid()) {
+            return;
+        }
+        if (acceptPausedUntil != 0 && System.currentTimeMillis() >= acceptPausedUntil) {
+            acceptPausedUntil = 0;
+        }
+        boolean full = maxSessions > 0 && getSessions() >= maxSessions;
+        int ops = acceptPausedUntil == 0 && !full ? SelectionKey.OP_ACCEPT : 0;
+        try {
+            if (acceptKey.interestOps() != ops) {
+                acceptKey.interestOps(ops);
+                if (full) {
+                    LOGGER.log(Level.INFO, "{0} has {1} clients connected; accepting more once some disconnect",
+                            new Object[]{authSocket, maxSessions});
+                } else if (ops == 0) {
+                    LOGGER.log(Level.FINE, "{0} pauses accepting clients until {1,time,HH:mm:ss.SSS}",
+                            new Object[]{authSocket, new Date(acceptPausedUntil)});
+                }
+            }
+        } catch (CancelledKeyException e) {
+            // closing
+        }
+    }
+
+    @SuppressFBWarnings(value="RV_RETURN_VALUE_IGNORED_BAD_PRACTICE", justification="bind will fail anyway if there is a problem with mkdirs")
     private String createLocalSocketAddress() throws IOException {
         String name;
-        if (temp != null) {
-            temp.mkdirs();
+        File dir;
+        if (RUNTIME_DIR != null && OsUtils.isUNIX()) {
+            dir = runtimeDir(RUNTIME_DIR);
+        } else {
+            dir = RUNTIME_DIR != null ? new File(RUNTIME_DIR) : temp;
+            if (dir != null) {
+                dir.mkdirs();
+            }
         }
         if (OsUtils.isUNIX()) {
-            File socket = File.createTempFile("ssh", "", temp);
+            File socket = newSocketFile(dir);
             if (socket.getAbsolutePath().length() >= /*UNIX_PATH_MAX*/108) {
                 LOGGER.log(Level.WARNING, "Cannot use {0} due to UNIX_PATH_MAX; falling back to system temp dir", socket);
-                socket = File.createTempFile("ssh", "");
+                socket = newSocketFile(null);
             }
-            FileUtils.deleteQuietly(socket);
             name = socket.getAbsolutePath();
         } else {
-            File socket = File.createTempFile("ssh", "", temp);
+            File socket = File.createTempFile("ssh", "", dir);
             FileUtils.deleteQuietly(socket);
             name = "\\\\.\\pipe\\" + socket.getName();
         }
         return name;
     }
 
+    /**
+     * Gets the private directory of this user in a runtime directory, creating it if needed. The runtime directory
+     * may be writable by everyone, like {@code /dev/shm}, so the subdirectory must not be a link, must belong to us
+     * and must be closed to everyone else.
+     *
+     * @param root the runtime directory.
+     * @return the subdirectory to create sockets in.
+     * @throws IOException if the subdirectory could not be created, or was created by someone else.
+     */
+    static File runtimeDir(String root) throws IOException {
+        Path dir = Paths.get(root, "jenkins-ssh-agent-" + System.getProperty("user.name"));
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        Files.createDirectories(dir.getParent());
+        try {
+            Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+        } catch (FileAlreadyExistsException e) {
+            // left by an earlier agent, or planted by someone else: checked below
+        }
+        PosixFileAttributes attributes = Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory()) {
+            throw new IOException(dir + " is not a directory");
+        }
+        UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!attributes.owner().equals(user)) {
+            throw new IOException(dir + " belongs to " + attributes.owner().getName() + ", not " + user.getName());
+        }
+        if (!attributes.permissions().equals(ownerOnly)) {
+            Files.setPosixFilePermissions(dir, ownerOnly);
+        }
+        return dir.toFile();
+    }
+
+    /**
+     * Picks the name of a socket that does not exist yet. Binding creates the file, so unlike
+     * {@link File#createTempFile(String, String, File)} this does not create and delete a file first.
+     */
+    private static File newSocketFile(@CheckForNull File dir) {
+        if (dir == null) {
+            dir = new File(System.getProperty("java.io.tmpdir"));
+        }
+        File socket;
+        do {
+            socket = new File(dir, "ssh" + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36));
+        } while (socket.exists());
+        return socket;
+    }
+
     public void close() {
+        FlightRecorder.Pending event = AgentEvents.AGENT_STOP.begin();
+        unregister();
+        // stop accepting, and answer what the connected clients already sent
+        if (acceptKey != null) {
+            acceptKey.cancel();
+        }
+        safelyClose(channel);
+        if (authSocket != null) {
+            FileUtils.deleteQuietly(new File(authSocket));
+        }
+        drain(DRAIN_TIMEOUT);
+
         selectable = false;
         selector.wakeup();
 
@@ -167,9 +506,227 @@ public class AgentServer {
 
         safelyClose(selector);
         safelyClose(agent);
-        safelyClose(channel);
-        if (authSocket != null) {
-            FileUtils.deleteQuietly(new File(authSocket));
+        event.commit(authSocket, transport.getClass().getSimpleName());
+    }
+
+    /**
+     * Lets the selector thread answer the requests the clients already sent, whether read yet or not, and those they
+     * are still sending, then stop. Clients that are connected but idle are not waited for.
+     * Must be called once the listen socket is closed.
+     *
+     * @param timeout the maximum time to serve the clients, in milliseconds.
+     * @return {@code true} if all requests were answered in time.
+     */
+    synchronized boolean drain(long timeout) {
+        if (thread == null) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + Math.max(1, timeout);
+        drainUntil = deadline;
+        selector.wakeup();
+        // the selector thread stops by the deadline; only wait a little longer in case it is stuck in a request
+        long remaining;
+        while (!stopped && (remaining = deadline + 1000 - System.currentTimeMillis()) > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Gets what the clients asked of this agent so far.
+     *
+     * @return the statistics.
+     * @since 1.18
+     */
+    public AgentStatistics getStatistics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Gets the number of connected clients.
+     *
+     * @return the number of connected clients.
+     */
+    @Override
+    public synchronized int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getSocket() {
+        return authSocket;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getWorkspace() {
+        return temp == null ? null : temp.getAbsolutePath();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getIdentities() {
+        try {
+            return agent.getIdentities().size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getConnections() {
+        return metrics.connections();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRequests() {
+        return metrics.requests();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getRequestsPerSecond() {
+        long uptime = getUptime();
+        return uptime <= 0 ? 0 : metrics.requests() * 1000.0 / uptime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getUptime() {
+        return startedAt == 0 ? 0 : System.currentTimeMillis() - startedAt;
+    }
+
+    private synchronized void sessionOpened() {
+        sessions++;
+    }
+
+    private synchronized void sessionClosed() {
+        sessions--;
+    }
+
+    private synchronized void selectorStopped() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * A token bucket limiting how many clients are accepted per second, starting full.
+     */
+    static final class AcceptRate {
+        private final int rate;
+        private double tokens;
+        private long tokensAt;
+
+        /**
+         * Constructor.
+         *
+         * @param rate the number of clients accepted per second, and in a burst.
+         * @param now  the current time in milliseconds.
+         */
+        AcceptRate(int rate, long now) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.tokensAt = now;
+        }
+
+        /**
+         * Takes a token for a client just accepted.
+         *
+         * @param now the current time in milliseconds.
+         * @return until when accepting must pause, in milliseconds, or {@code 0} if another client may be accepted.
+         */
+        long take(long now) {
+            tokens = Math.min(rate, tokens + (now - tokensAt) * rate / 1000.0) - 1;
+            tokensAt = now;
+            return tokens < 1 ? now + (long) Math.ceil((1 - tokens) * 1000 / rate) : 0;
+        }
+    }
+
+    /**
+     * The unix domain socket implementation used by the server.
+     * Channels are non-blocking and can be read and written as {@link ByteChannel}s.
+     *
+     * @since 1.18
+     */
+    public interface Transport {
+        /**
+         * Binds a server socket, readable and writable by the owner only.
+         *
+         * @param path the socket file, which does not exist.
+         * @return the non-blocking server channel.
+         */
+        SelectableChannel bind(String path) throws IOException;
+
+        /**
+         * Opens a selector for the channels of this transport.
+         *
+         * @return the selector.
+         */
+        Selector openSelector() throws IOException;
+
+        /**
+         * Accepts a connection.
+         *
+         * @param server the channel returned by {@link #bind(String)}.
+         * @return the connection, or {@code null} if there is none pending.
+         */
+        @CheckForNull
+        SelectableChannel accept(SelectableChannel server) throws IOException;
+    }
+
+    /**
+     * Unix domain sockets provided by jnr-unixsocket.
+     */
+    static final class JNRTransport implements Transport {
+        static final Transport INSTANCE = new JNRTransport();
+
+        @Override
+        public SelectableChannel bind(String path) throws IOException {
+            UnixServerSocketChannel channel = UnixServerSocketChannel.open();
+            boolean bound = false;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().bind(new UnixSocketAddress(new File(path)));
+                POSIXFactory.getPOSIX().chmod(path, 0600);
+                bound = true;
+                return channel;
+            } finally {
+                if (!bound) {
+                    safelyClose(channel);
+                }
+            }
+        }
+
+        @Override
+        public Selector openSelector() throws IOException {
+            return NativeSelectorProvider.getInstance().openSelector();
+        }
+
+        @Override
+        public SelectableChannel accept(SelectableChannel server) throws IOException {
+            return ((UnixServerSocketChannel) server).accept();
         }
     }
 
@@ -179,10 +736,25 @@ public class AgentServer {
 
     final class SshAgentServerSocketHandler implements EventHandler {
         public final void process(SelectionKey key) throws IOException {
+            if (!channel.isOpen()) {
+                return; // closing
+            }
             try {
-                UnixSocketChannel clientChannel = channel.accept();
+                SelectableChannel clientChannel = transport.accept(channel);
+                if (clientChannel == null) {
+                    return;
+                }
                 clientChannel.configureBlocking(false);
-                clientChannel.register(selector, SelectionKey.OP_READ, new SshAgentSessionSocketHandler(clientChannel));
+                SshAgentSessionSocketHandler session = new SshAgentSessionSocketHandler(clientChannel);
+                session.key = clientChannel.register(selector, SelectionKey.OP_READ, session);
+                if (idle != null) {
+                    session.timeout = idle.schedule(session, System.currentTimeMillis() + idleTimeout);
+                }
+                sessionOpened();
+                metrics.connected();
+                AgentEvents.SESSION_ACCEPT.emit(authSocket);
+                acceptRateLimit();
+                updateAcceptInterest();
             } catch (IOException ex) {
                 LOGGER.log(Level.WARNING, "failed to accept new connection", ex);
                 safelyClose(channel);
@@ -195,20 +767,47 @@ public class AgentServer {
 
         public static final byte SSH_AGENTC_REQUEST_RSA_IDENTITIES=1;
         public static final byte SSH_AGENT_RSA_IDENTITIES_ANSWER=2;
+        public static final byte SSH2_AGENTC_SIGN_REQUEST=13;
+
+        private final ByteChannel sessionChannel;
+
+        private boolean closed;
+
+        private SelectionKey key;
 
-        private final UnixSocketChannel sessionChannel;
+        private TimingWheel.Timeout<SshAgentSessionSocketHandler> timeout;
 
-        public SshAgentSessionSocketHandler(UnixSocketChannel sessionChannel) {
+        /**
+         * How many bytes of the length of the next request were received.
+         */
+        private int lengthRead;
+
+        /**
+         * The length of the next request, as far as received.
+         */
+        private int length;
+
+        /**
+         * How many bytes of the request being received are still to come.
+         */
+        private long bodyLeft;
+
+        public SshAgentSessionSocketHandler(SelectableChannel sessionChannel) {
             super(agent);
-            this.sessionChannel = sessionChannel;
+            this.sessionChannel = (ByteChannel) sessionChannel;
         }
 
         public void process(SelectionKey key) {
+            if (timeout != null) {
+                timeout.setDeadline(System.currentTimeMillis() + idleTimeout);
+            }
             try {
                 ByteBuffer buf = ByteBuffer.allocate(1024);
                 int result;
                 while (0 < (result = sessionChannel.read(buf))) {
+                    metrics.read(result);
                     buf.flip();
+                    frame(buf);
                     messageReceived(new ByteArrayBuffer(buf.array(), buf.position(), buf.remaining()));
                     if (result == 1024) {
                         buf.rewind();
@@ -219,13 +818,57 @@ public class AgentServer {
 
                 if (result == -1) {
                     // EOF => remote closed the connection, cancel the selection key and close the channel.
-                    key.cancel();
-                    sessionChannel.close();
+                    close();
                 }
             } catch (IOException e) {
                 LOGGER.log(Level.INFO, "Could not write response to socket", e);
-                key.cancel();
-                safelyClose(sessionChannel);
+                metrics.error();
+                close();
+            }
+        }
+
+        /**
+         * Follows the framing of the requests, each a length and that many bytes, to tell whether one was only partly
+         * received.
+         */
+        private void frame(ByteBuffer buf) {
+            int i = buf.position();
+            while (i < buf.limit()) {
+                if (bodyLeft > 0) {
+                    int n = (int) Math.min(bodyLeft, buf.limit() - i);
+                    bodyLeft -= n;
+                    i += n;
+                } else {
+                    length = length << 8 | (buf.get(i++) & 0xff);
+                    if (++lengthRead == 4) {
+                        bodyLeft = length & 0xffffffffL;
+                        lengthRead = 0;
+                        length = 0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Checks whether a request was only partly received.
+         *
+         * @return {@code true} if the client is in the middle of sending a request.
+         */
+        boolean isPartial() {
+            return !closed && (lengthRead > 0 || bodyLeft > 0);
+        }
+
+        void close() {
+            key.cancel();
+            safelyClose(sessionChannel);
+            if (!closed) {
+                closed = true;
+                if (idle != null && timeout != null) {
+                    idle.cancel(timeout);
+                }
+                sessionClosed();
+                AgentEvents.SESSION_CLOSE.emit(authSocket);
+                updateAcceptInterest();
             }
         }
 
@@ -236,24 +879,54 @@ public class AgentServer {
             if (result < 0) {
                 throw new IOException("Could not write response to socket");
             }
+            metrics.written(result);
         }
 
         @Override
         protected void process(int cmd, Buffer req, Buffer rep) throws Exception {
-            switch (cmd) {
-                case SSH_AGENTC_REQUEST_RSA_IDENTITIES:
-                    // stop causing ssh-add -l to log errors
-                    rep.putByte(SSH_AGENT_RSA_IDENTITIES_ANSWER);
-                    rep.putInt(0);
-                    break;
-
-                default:
-                    super.process(cmd, req, rep);
-                    break;
+            metrics.request(cmd);
+            try {
+                switch (cmd) {
+                    case SSH_AGENTC_REQUEST_RSA_IDENTITIES:
+                        // stop causing ssh-add -l to log errors
+                        rep.putByte(SSH_AGENT_RSA_IDENTITIES_ANSWER);
+                        rep.putInt(0);
+                        break;
+
+                    case SSH2_AGENTC_SIGN_REQUEST:
+                        int rpos = req.rpos();
+                        byte[] blob = req.getBytes();
+                        int length = req.getInt();
+                        req.rpos(rpos);
+                        FlightRecorder.Pending event = AgentEvents.SIGN.begin();
+                        long start = System.nanoTime();
+                        super.process(cmd, req, rep);
+                        metrics.signed(blob, System.nanoTime() - start);
+                        event.commit(keyType(blob), length);
+                        break;
+
+                    default:
+                        super.process(cmd, req, rep);
+                        break;
+                }
+            } catch (Exception e) {
+                metrics.error(); // answered with SSH_AGENT_FAILURE by the caller
+                throw e;
             }
         }
     }
 
+    /**
+     * Reads the key type at the start of a key blob.
+     */
+    private static String keyType(byte[] blob) {
+        if (blob.length < 4) {
+            return "";
+        }
+        int length = (blob[0] & 0xff) << 24 | (blob[1] & 0xff) << 16 | (blob[2] & 0xff) << 8 | (blob[3] & 0xff);
+        return new String(blob, 4, Math.max(0, Math.min(length, blob.length - 4)), StandardCharsets.US_ASCII);
+    }
+
     private static void safelyClose(Closeable channel) {
         if (channel != null) {
             try {
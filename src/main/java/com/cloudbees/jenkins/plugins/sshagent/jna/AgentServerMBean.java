@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+/**
+ * The JMX view of a running {@link AgentServer}, registered as
+ * {@code com.cloudbees.jenkins.plugins.sshagent:type=AgentServer,socket="..."} in the platform MBean server of the
+ * node.
+ *
+ * @since 1.18
+ */
+public interface AgentServerMBean {
+
+    /**
+     * @return the socket the agent listens on.
+     */
+    String getSocket();
+
+    /**
+     * @return the temporary directory of the workspace that the agent was started for, which tells the job it belongs
+     * to, or {@code null} if unknown.
+     */
+    String getWorkspace();
+
+    /**
+     * @return the number of identities loaded, or {@code -1} if the agent is closed.
+     */
+    int getIdentities();
+
+    /**
+     * @return the number of connected clients.
+     */
+    int getSessions();
+
+    /**
+     * @return the number of clients accepted since the agent started.
+     */
+    long getConnections();
+
+    /**
+     * @return the number of requests since the agent started.
+     */
+    long getRequests();
+
+    /**
+     * @return the number of requests per second, averaged since the agent started.
+     */
+    double getRequestsPerSecond();
+
+    /**
+     * @return how long the agent has been running, in milliseconds.
+     */
+    long getUptime();
+}
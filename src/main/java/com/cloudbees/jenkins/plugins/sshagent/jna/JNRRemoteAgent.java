@@ -24,8 +24,11 @@
 
 package com.cloudbees.jenkins.plugins.sshagent.jna;
 
+import com.cloudbees.jenkins.plugins.sshagent.AgentStatistics;
 import com.cloudbees.jenkins.plugins.sshagent.Messages;
 import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.jfr.AgentEvents;
+import com.cloudbees.jenkins.plugins.sshagent.jfr.FlightRecorder;
 import hudson.model.TaskListener;
 import jenkins.bouncycastle.api.PEMEncodable;
 
@@ -33,6 +36,7 @@ import java.io.File;
 
 import java.io.IOException;
 import java.security.KeyPair;
+import java.security.UnrecoverableKeyException;
 import javax.annotation.CheckForNull;
 
 /**
@@ -59,9 +63,41 @@ public class JNRRemoteAgent implements RemoteAgent {
      * @throws Exception if the agent could not start.
      */
     public JNRRemoteAgent(TaskListener listener, @CheckForNull File temp) throws Exception {
+        this(listener, temp, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener.
+     * @param temp the directory to create the socket in.
+     * @param socket the socket to bind, or {@code null} to create a new one.
+     * @throws Exception if the agent could not start.
+     * @since 1.18
+     */
+    public JNRRemoteAgent(TaskListener listener, @CheckForNull File temp, @CheckForNull String socket) throws Exception {
+        this(listener, new AgentServer(temp), socket);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener.
+     * @param temp the directory to create the socket in.
+     * @param socket the socket to bind, or {@code null} to create a new one.
+     * @param transport the unix socket implementation.
+     * @throws Exception if the agent could not start.
+     * @since 1.18
+     */
+    public JNRRemoteAgent(TaskListener listener, @CheckForNull File temp, @CheckForNull String socket,
+                          AgentServer.Transport transport) throws Exception {
+        this(listener, new AgentServer(new LocalAgent(), temp, transport), socket);
+    }
+
+    private JNRRemoteAgent(TaskListener listener, AgentServer agent, @CheckForNull String socket) throws Exception {
         this.listener = listener;
-        agent = new AgentServer(temp);
-        socket = agent.start();
+        this.agent = agent;
+        this.socket = agent.start(socket);
     }
 
     /**
@@ -76,14 +112,39 @@ public class JNRRemoteAgent implements RemoteAgent {
      */
     public void addIdentity(String privateKey, final String passphrase, String comment) throws IOException {
         try {
+            FlightRecorder.Pending event = AgentEvents.IDENTITY_LOAD.begin();
             KeyPair keyPair = PEMEncodable.decode(privateKey, passphrase == null ? null : passphrase.toCharArray()).toKeyPair();
+            event.end();
             agent.getAgent().addIdentity(keyPair, comment);
+            event.commit(keyPair.getPublic().getAlgorithm());
         } catch (Exception e) {
             listener.getLogger().println(Messages.SSHAgentBuildWrapper_UnableToReadKey(e.getMessage()));
             e.printStackTrace(listener.getLogger());
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeIdentity(String privateKey, final String passphrase, String comment) throws IOException {
+        KeyPair keyPair;
+        try {
+            keyPair = PEMEncodable.decode(privateKey, passphrase == null ? null : passphrase.toCharArray()).toKeyPair();
+        } catch (UnrecoverableKeyException e) {
+            throw new IOException("Could not decode private key", e);
+        }
+        agent.getAgent().removeIdentity(keyPair.getPublic());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AgentStatistics getStatistics() {
+        return agent.getStatistics();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -66,4 +66,14 @@ public class JNRRemoteAgentFactory extends RemoteAgentFactory {
         return launcher.getChannel().call(new JNRRemoteAgentStarter(listener, temp != null ? temp.getRemote() : null));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RemoteAgent resume(Launcher launcher, TaskListener listener, FilePath temp, String socket) throws Throwable {
+        RemoteHelper.registerBouncyCastle(launcher.getChannel(), listener);
+
+        return launcher.getChannel().call(new JNRRemoteAgentStarter(listener, temp != null ? temp.getRemote() : null, socket));
+    }
+
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ package com.cloudbees.jenkins.plugins.sshagent.jna;
 import jenkins.security.MasterToSlaveCallable;
 
 import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentHandle;
 
 import hudson.model.TaskListener;
 import hudson.remoting.Channel;
@@ -51,23 +52,42 @@ public class JNRRemoteAgentStarter extends MasterToSlaveCallable<RemoteAgent, Th
 
     private final @CheckForNull String tempDir;
 
+    /**
+     * The socket to bind, or {@code null} to create a new one.
+     * @since 1.18
+     */
+    private final @CheckForNull String socket;
+
     /**
      * Constructor.
      *
      * @param listener the listener to pass to the agent.
      */
     public JNRRemoteAgentStarter(TaskListener listener, String tempDir) {
+        this(listener, tempDir, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener to pass to the agent.
+     * @param tempDir the directory to create the socket in.
+     * @param socket the socket to bind, or {@code null} to create a new one.
+     * @since 1.18
+     */
+    public JNRRemoteAgentStarter(TaskListener listener, String tempDir, @CheckForNull String socket) {
         this.listener = listener;
         this.tempDir = tempDir;
+        this.socket = socket;
     }
 
     /**
      * {@inheritDoc}
      */
     public RemoteAgent call() throws Throwable {
-        final JNRRemoteAgent instance = new JNRRemoteAgent(listener, tempDir != null ? new File(tempDir) : null);
+        final JNRRemoteAgent instance = new JNRRemoteAgent(listener, tempDir != null ? new File(tempDir) : null, socket);
         final Channel channel = Channel.current();
-        return channel == null ? instance : channel.export(RemoteAgent.class, instance);
+        return channel == null ? instance : RemoteAgentHandle.register(channel, instance);
     }
 
 }
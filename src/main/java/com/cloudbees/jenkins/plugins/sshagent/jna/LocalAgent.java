@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import com.cloudbees.jenkins.plugins.sshagent.SSHPublicKeys;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import org.apache.sshd.agent.SshAgent;
+import org.apache.sshd.common.SshException;
+import org.apache.sshd.common.util.Pair;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.signers.DSAKCalculator;
+import org.bouncycastle.crypto.signers.DSASigner;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.jcajce.provider.asymmetric.dsa.DSAUtil;
+import org.bouncycastle.jcajce.provider.asymmetric.util.ECUtil;
+
+/**
+ * An in-memory {@link SshAgent} that signs with a configurable source of randomness.
+ * Replaces {@code org.apache.sshd.agent.local.AgentImpl}, whose signatures all draw on the JVM default
+ * {@link SecureRandom}: that instance can block on a freshly booted machine with little entropy, and serializes the
+ * signatures of all the agents of the JVM.
+ *
+ * @since 1.18
+ */
+public class LocalAgent implements SshAgent {
+
+    private static final Logger LOGGER = Logger.getLogger(LocalAgent.class.getName());
+
+    /**
+     * Where the nonces of DSA and ECDSA signatures come from.
+     */
+    public enum Randomness {
+        /**
+         * The JVM default {@link SecureRandom}, as chosen by the JCA provider.
+         */
+        DEFAULT,
+        /**
+         * A {@link SecureRandom} per thread, seeded once from the non-blocking system source.
+         */
+        THREAD_LOCAL,
+        /**
+         * Deterministic nonces derived from the key and the message as per RFC 6979: no randomness is needed at all.
+         */
+        RFC6979
+    }
+
+    /**
+     * The randomness used by agents started on this JVM, set with a system property on the node.
+     */
+    private static final Randomness RANDOMNESS = randomness(
+            System.getProperty(LocalAgent.class.getName() + ".RANDOMNESS", Randomness.DEFAULT.name()));
+
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            try {
+                SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+                // seeding before the first use replaces the self-seeding, which may block
+                random.setSeed(SecureRandom.getInstance("NativePRNGNonBlocking").generateSeed(32));
+                return random;
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    };
+
+    /**
+     * The identities by public key blob, in the order they were added.
+     */
+    private final Map<ByteBuffer, Identity> keys = new LinkedHashMap<ByteBuffer, Identity>();
+
+    private final Randomness randomness;
+
+    private volatile boolean open = true;
+
+    public LocalAgent() {
+        this(RANDOMNESS);
+    }
+
+    public LocalAgent(@Nonnull Randomness randomness) {
+        this.randomness = randomness;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Pair<PublicKey, String>> getIdentities() throws IOException {
+        ensureOpen();
+        synchronized (keys) {
+            List<Pair<PublicKey, String>> identities = new ArrayList<Pair<PublicKey, String>>(keys.size());
+            for (Identity identity : keys.values()) {
+                identities.add(new Pair<PublicKey, String>(identity.keyPair.getPublic(), identity.comment));
+            }
+            return identities;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] sign(PublicKey key, byte[] data) throws IOException {
+        ensureOpen();
+        KeyPair keyPair = find(key);
+        if (keyPair == null) {
+            throw new SshException("Key not found");
+        }
+        try {
+            return sign(keyPair, data);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            throw new SshException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addIdentity(KeyPair key, String comment) throws IOException {
+        ensureOpen();
+        ByteBuffer blob = ByteBuffer.wrap(SSHPublicKeys.encode(key.getPublic()));
+        synchronized (keys) {
+            Identity identity = keys.get(blob);
+            if (identity == null) {
+                keys.put(blob, new Identity(key, comment));
+            } else {
+                identity.count++; // added again under another credential, kept until removed as often
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeIdentity(PublicKey key) throws IOException {
+        ensureOpen();
+        ByteBuffer blob = ByteBuffer.wrap(SSHPublicKeys.encode(key));
+        synchronized (keys) {
+            Identity identity = keys.get(blob);
+            if (identity != null) {
+                if (--identity.count == 0) {
+                    keys.remove(blob);
+                }
+                return;
+            }
+        }
+        throw new SshException("Key not found");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAllIdentities() throws IOException {
+        ensureOpen();
+        synchronized (keys) {
+            keys.clear();
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        open = false;
+        synchronized (keys) {
+            keys.clear();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new SshException("Agent closed");
+        }
+    }
+
+    private KeyPair find(PublicKey key) {
+        ByteBuffer blob = ByteBuffer.wrap(SSHPublicKeys.encode(key));
+        synchronized (keys) {
+            Identity identity = keys.get(blob);
+            return identity == null ? null : identity.keyPair;
+        }
+    }
+
+    /**
+     * Signs data, returning the signature blob in the format of RFC 4253 section 6.6 and RFC 5656 section 3.1.2,
+     * without the leading key type.
+     */
+    private byte[] sign(KeyPair keyPair, byte[] data) throws GeneralSecurityException, IOException {
+        PublicKey pub = keyPair.getPublic();
+        PrivateKey priv = keyPair.getPrivate();
+        if (pub instanceof RSAPublicKey) {
+            // PKCS#1 v1.5 signatures are deterministic, the randomness does not matter
+            Signature signature = Signature.getInstance("SHA1withRSA");
+            signature.initSign(priv);
+            signature.update(data);
+            return signature.sign();
+        }
+        BigInteger[] rs;
+        if (randomness == Randomness.RFC6979) {
+            if (pub instanceof DSAPublicKey) {
+                DSASigner signer = new DSASigner(kCalculator(new SHA1Digest()));
+                signer.init(true, DSAUtil.generatePrivateKeyParameter(priv));
+                rs = signer.generateSignature(digest(new SHA1Digest(), data));
+            } else if (pub instanceof ECPublicKey) {
+                Digest digest = ecDigest((ECPublicKey) pub);
+                ECDSASigner signer = new ECDSASigner(kCalculator(ecDigest((ECPublicKey) pub)));
+                signer.init(true, ECUtil.generatePrivateKeyParameter(priv));
+                rs = signer.generateSignature(digest(digest, data));
+            } else {
+                throw new NoSuchAlgorithmException("Unsupported key type: " + pub.getAlgorithm());
+            }
+        } else {
+            String algorithm;
+            if (pub instanceof DSAPublicKey) {
+                algorithm = "SHA1withDSA";
+            } else if (pub instanceof ECPublicKey) {
+                algorithm = ecDigest((ECPublicKey) pub).getAlgorithmName().replace("-", "") + "withECDSA";
+            } else {
+                throw new NoSuchAlgorithmException("Unsupported key type: " + pub.getAlgorithm());
+            }
+            Signature signature = Signature.getInstance(algorithm);
+            if (randomness == Randomness.THREAD_LOCAL) {
+                signature.initSign(priv, RANDOM.get());
+            } else {
+                signature.initSign(priv);
+            }
+            signature.update(data);
+            ASN1Sequence der = ASN1Sequence.getInstance(signature.sign());
+            rs = new BigInteger[]{
+                    ASN1Integer.getInstance(der.getObjectAt(0)).getValue(),
+                    ASN1Integer.getInstance(der.getObjectAt(1)).getValue()
+            };
+        }
+        if (pub instanceof DSAPublicKey) {
+            byte[] blob = new byte[40];
+            unsigned(rs[0], blob, 0, 20);
+            unsigned(rs[1], blob, 20, 20);
+            return blob;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (BigInteger i : rs) {
+            byte[] mpint = i.toByteArray();
+            out.writeInt(mpint.length);
+            out.write(mpint);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static DSAKCalculator kCalculator(Digest digest) {
+        return new HMacDSAKCalculator(digest);
+    }
+
+    private static Digest ecDigest(ECPublicKey key) {
+        // RFC 5656 section 6.2.1
+        int bits = key.getParams().getCurve().getField().getFieldSize();
+        if (bits <= 256) {
+            return new SHA256Digest();
+        }
+        if (bits <= 384) {
+            return new SHA384Digest();
+        }
+        return new SHA512Digest();
+    }
+
+    private static byte[] digest(Digest digest, byte[] data) {
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.update(data, 0, data.length);
+        digest.doFinal(hash, 0);
+        return hash;
+    }
+
+    private static void unsigned(BigInteger value, byte[] dest, int offset, int length) {
+        byte[] raw = value.toByteArray();
+        int skip = raw.length > length ? raw.length - length : 0; // drop sign byte
+        System.arraycopy(raw, skip, dest, offset + length - (raw.length - skip), raw.length - skip);
+    }
+
+    /**
+     * A key held by the agent.
+     */
+    private static final class Identity {
+        private final KeyPair keyPair;
+        private final String comment;
+        private int count = 1;
+
+        Identity(KeyPair keyPair, String comment) {
+            this.keyPair = keyPair;
+            this.comment = comment;
+        }
+    }
+
+    private static Randomness randomness(String name) {
+        try {
+            return Randomness.valueOf(name.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Unknown ssh-agent randomness {0}, using {1}",
+                    new Object[]{name, Randomness.DEFAULT});
+            return Randomness.DEFAULT;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nonnull;
+
+/**
+ * A hashed timing wheel for timeouts that are mostly pushed back rather than reached, such as idle timeouts.
+ * Pushing a timeout back only updates its deadline; the timeout is moved in the wheel when its slot comes round.
+ * Not thread safe: meant to be used from a selector loop.
+ *
+ * @param <T> the type of the values that time out.
+ */
+final class TimingWheel<T> {
+
+    private final long tickMillis;
+
+    private final List<Set<Timeout<T>>> slots;
+
+    /**
+     * The next tick to process, counted in {@link #tickMillis} since the epoch.
+     */
+    private long tick;
+
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param slots      the number of slots.
+     * @param tickMillis the duration of a slot, which is the precision of the timeouts.
+     * @param now        the current time in milliseconds.
+     */
+    TimingWheel(int slots, long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<Set<Timeout<T>>>(slots);
+        for (int i = 0; i < slots; i++) {
+            this.slots.add(new HashSet<Timeout<T>>());
+        }
+        this.tick = now / tickMillis;
+    }
+
+    /**
+     * Gets how long the selector loop may wait before calling {@link #expire(long)}.
+     *
+     * @return the duration of a tick, or {@code 0} to wait for ever when there is nothing to time out.
+     */
+    long getTickMillis() {
+        return size == 0 ? 0 : tickMillis;
+    }
+
+    /**
+     * Schedules a timeout.
+     *
+     * @param value    the value that times out.
+     * @param deadline when it times out, in milliseconds.
+     * @return the timeout, to {@linkplain Timeout#setDeadline(long) push back} or {@linkplain #cancel(Timeout) cancel}.
+     */
+    @Nonnull
+    Timeout<T> schedule(@Nonnull T value, long deadline) {
+        Timeout<T> timeout = new Timeout<T>(value, deadline);
+        insert(timeout);
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout.
+     *
+     * @param timeout the timeout.
+     */
+    void cancel(@Nonnull Timeout<T> timeout) {
+        if (slots.get(timeout.slot).remove(timeout)) {
+            size--;
+        }
+    }
+
+    /**
+     * Advances the wheel.
+     *
+     * @param now the current time in milliseconds.
+     * @return the values that timed out.
+     */
+    @Nonnull
+    List<T> expire(long now) {
+        List<T> expired = new ArrayList<T>();
+        long target = now / tickMillis;
+        if (size == 0) {
+            tick = Math.max(tick, target + 1);
+            return expired;
+        }
+        List<Timeout<T>> later = new ArrayList<Timeout<T>>();
+        while (tick <= target) {
+            Set<Timeout<T>> slot = slots.get((int) (tick % slots.size()));
+            for (Iterator<Timeout<T>> it = slot.iterator(); it.hasNext(); ) {
+                Timeout<T> timeout = it.next();
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                    continue;
+                }
+                it.remove();
+                size--;
+                if (timeout.deadline > now) {
+                    later.add(timeout); // pushed back since it was scheduled
+                } else {
+                    expired.add(timeout.value);
+                }
+            }
+            tick++;
+        }
+        for (Timeout<T> timeout : later) {
+            insert(timeout);
+        }
+        return expired;
+    }
+
+    private void insert(Timeout<T> timeout) {
+        long due = Math.max(timeout.deadline / tickMillis, tick);
+        timeout.slot = (int) (due % slots.size());
+        timeout.rounds = (due - tick) / slots.size();
+        slots.get(timeout.slot).add(timeout);
+        size++;
+    }
+
+    /**
+     * A scheduled timeout.
+     *
+     * @param <T> the type of the value that times out.
+     */
+    static final class Timeout<T> {
+        private final T value;
+        private long deadline;
+        private int slot;
+        private long rounds;
+
+        private Timeout(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Pushes back the timeout.
+         *
+         * @param deadline the new deadline in milliseconds, which must not be earlier than the current one.
+         */
+        void setDeadline(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+}
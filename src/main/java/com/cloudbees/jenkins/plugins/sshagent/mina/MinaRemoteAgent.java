@@ -32,13 +32,24 @@ import jenkins.bouncycastle.api.PEMEncodable;
 import org.apache.commons.io.IOUtils;
 import org.apache.sshd.agent.unix.AgentServer;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.KeyPair;
+import java.security.UnrecoverableKeyException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * An implementation that uses Apache SSH to provide the Agent. This requires Tomcat-Native.
  */
 public class MinaRemoteAgent implements RemoteAgent {
+    private static final Logger LOGGER = Logger.getLogger(MinaRemoteAgent.class.getName());
+    /**
+     * How long, in milliseconds, {@link #stop()} keeps serving the connected clients once the socket is deleted, set
+     * with a system property on the node. The Mina server does not tell whether a client has a request left to read,
+     * so this is always waited for; its session threads answer what was sent meanwhile.
+     */
+    private static final long DRAIN_TIMEOUT = Long.getLong(MinaRemoteAgent.class.getName() + ".DRAIN_TIMEOUT", 200);
     /**
      * Our agent.
      */
@@ -83,10 +94,35 @@ public class MinaRemoteAgent implements RemoteAgent {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeIdentity(String privateKey, final String passphrase, String comment) throws IOException {
+        KeyPair keyPair;
+        try {
+            keyPair = PEMEncodable.decode(privateKey, passphrase == null ? null : passphrase.toCharArray()).toKeyPair();
+        } catch (UnrecoverableKeyException e) {
+            throw new IOException("Could not decode private key", e);
+        }
+        agent.getAgent().removeIdentity(keyPair.getPublic());
+    }
+
     /**
      * {@inheritDoc}
      */
     public void stop() {
+        // stop accepting, and answer what the connected clients already sent
+        if (!new File(socket).delete()) {
+            LOGGER.log(Level.FINE, "Could not delete {0}", socket);
+        }
+        if (DRAIN_TIMEOUT > 0) {
+            try {
+                Thread.sleep(DRAIN_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         IOUtils.closeQuietly(agent);
     }
 }
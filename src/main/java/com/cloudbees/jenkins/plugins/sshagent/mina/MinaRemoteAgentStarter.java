@@ -27,6 +27,7 @@ package com.cloudbees.jenkins.plugins.sshagent.mina;
 import jenkins.security.MasterToSlaveCallable;
 
 import com.cloudbees.jenkins.plugins.sshagent.RemoteAgent;
+import com.cloudbees.jenkins.plugins.sshagent.RemoteAgentHandle;
 
 import hudson.model.TaskListener;
 import hudson.remoting.Channel;
@@ -62,7 +63,7 @@ public class MinaRemoteAgentStarter extends MasterToSlaveCallable<RemoteAgent, T
     public RemoteAgent call() throws Throwable {
         final MinaRemoteAgent instance = new MinaRemoteAgent(listener);
         final Channel channel = Channel.current();
-        return channel == null ? instance : channel.export(RemoteAgent.class, instance);
+        return channel == null ? instance : RemoteAgentHandle.register(channel, instance);
     }
 
 }
@@ -0,0 +1,157 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import jnr.unixsocket.UnixSocketAddress;
+import jnr.unixsocket.UnixSocketChannel;
+
+/**
+ * A minimal client of the ssh-agent protocol (draft-miller-ssh-agent) over a unix socket, for tests and benchmarks.
+ * Not thread safe: use one client per thread.
+ */
+public final class AgentClient implements Closeable {
+
+    public static final byte SSH_AGENT_FAILURE = 5;
+    public static final byte SSH2_AGENTC_REQUEST_IDENTITIES = 11;
+    public static final byte SSH2_AGENT_IDENTITIES_ANSWER = 12;
+    public static final byte SSH2_AGENTC_SIGN_REQUEST = 13;
+    public static final byte SSH2_AGENT_SIGN_RESPONSE = 14;
+
+    private final UnixSocketChannel channel;
+
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+
+    private ByteBuffer response = ByteBuffer.allocate(4096);
+
+    private AgentClient(UnixSocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connects to an agent.
+     *
+     * @param socket the value of {@code SSH_AUTH_SOCK}.
+     * @return the client.
+     */
+    public static AgentClient connect(String socket) throws IOException {
+        return new AgentClient(UnixSocketChannel.open(new UnixSocketAddress(new File(socket))));
+    }
+
+    /**
+     * Lists the identities of the agent.
+     *
+     * @return the public key blobs.
+     */
+    public List<byte[]> requestIdentities() throws IOException {
+        write(request(SSH2_AGENTC_REQUEST_IDENTITIES, new byte[0]));
+        return readIdentities();
+    }
+
+    /**
+     * Reads the answer to a request for the identities written with {@link #write(ByteBuffer)}.
+     *
+     * @return the public key blobs.
+     */
+    public List<byte[]> readIdentities() throws IOException {
+        ByteBuffer reply = read(SSH2_AGENTC_REQUEST_IDENTITIES, SSH2_AGENT_IDENTITIES_ANSWER);
+        int count = reply.getInt();
+        List<byte[]> keys = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(string(reply));
+            string(reply); // comment
+        }
+        return keys;
+    }
+
+    /**
+     * Asks the agent to sign data.
+     *
+     * @param key  the public key blob.
+     * @param data the data.
+     * @return the signature blob.
+     */
+    public byte[] sign(byte[] key, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length + data.length + 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(data.length);
+        out.write(data);
+        out.writeInt(0); // flags
+        out.flush();
+        return string(call(SSH2_AGENTC_SIGN_REQUEST, bytes.toByteArray(), SSH2_AGENT_SIGN_RESPONSE));
+    }
+
+    /**
+     * Encodes a request.
+     *
+     * @param type    the message type.
+     * @param payload the message contents.
+     * @return the request, ready to be written.
+     */
+    public static ByteBuffer request(byte type, byte[] payload) {
+        ByteBuffer request = ByteBuffer.allocate(5 + payload.length);
+        request.putInt(1 + payload.length).put(type).put(payload).flip();
+        return request;
+    }
+
+    /**
+     * Writes the remaining bytes of a request, or some of them up to the limit of the buffer.
+     *
+     * @param request the request, see {@link #request(byte, byte[])}.
+     */
+    public void write(ByteBuffer request) throws IOException {
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+    }
+
+    private ByteBuffer call(byte type, byte[] payload, byte expected) throws IOException {
+        write(request(type, payload));
+        return read(type, expected);
+    }
+
+    private ByteBuffer read(byte type, byte expected) throws IOException {
+        header.clear();
+        fill(header);
+        int length = header.getInt();
+        if (response.capacity() < length) {
+            response = ByteBuffer.allocate(length);
+        }
+        response.clear();
+        response.limit(length);
+        fill(response);
+        byte answer = response.get();
+        if (answer != expected) {
+            throw new IOException("Agent answered " + answer + " to " + type);
+        }
+        return response;
+    }
+
+    private void fill(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Agent closed the connection");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static byte[] string(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,120 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AgentEventLogTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    private long maxSize;
+
+    private int queueSize;
+
+    @Before
+    public void enable() {
+        maxSize = AgentEventLog.MAX_SIZE;
+        queueSize = AgentEventLog.QUEUE_SIZE;
+        SSHAgentConfiguration.get().setEventLog(true);
+    }
+
+    @After
+    public void restore() {
+        AgentEventLog.MAX_SIZE = maxSize;
+        AgentEventLog.QUEUE_SIZE = queueSize;
+    }
+
+    @Test
+    public void oneObjectPerLine() throws Exception {
+        JSONObject fields = new JSONObject();
+        fields.put("socket", "/tmp/agent.sock");
+        AgentEventLog.log("start", "node", "job#1", fields);
+        AgentEventLog.log("stop", null, null, null);
+        AgentEventLog.flush();
+
+        List<String> lines = lines(AgentEventLog.getFile());
+        assertEquals(2, lines.size());
+        JSONObject start = JSONObject.fromObject(lines.get(0));
+        assertEquals("start", start.getString("event"));
+        assertEquals("node", start.getString("node"));
+        assertEquals("job#1", start.getString("build"));
+        assertEquals("/tmp/agent.sock", start.getString("socket"));
+        assertTrue(start.getLong("time") > 0);
+        JSONObject stop = JSONObject.fromObject(lines.get(1));
+        assertEquals("stop", stop.getString("event"));
+        assertFalse(stop.has("node"));
+        assertFalse(stop.has("build"));
+    }
+
+    @Test
+    public void notLoggedUnlessEnabled() throws Exception {
+        SSHAgentConfiguration.get().setEventLog(false);
+        AgentEventLog.log("start", "node", "job#1", null);
+        AgentEventLog.flush();
+        assertFalse(AgentEventLog.getFile().exists());
+    }
+
+    @Test
+    public void droppedWhenFull() throws Exception {
+        AgentEventLog.QUEUE_SIZE = 2;
+        for (int i = 0; i < 5; i++) {
+            JSONObject fields = new JSONObject();
+            fields.put("i", i);
+            AgentEventLog.log("probe", null, null, fields);
+        }
+        AgentEventLog.flush();
+
+        List<String> lines = lines(AgentEventLog.getFile());
+        assertEquals(3, lines.size());
+        JSONObject dropped = JSONObject.fromObject(lines.get(0));
+        assertEquals("dropped", dropped.getString("event"));
+        assertEquals(3, dropped.getLong("count"));
+        assertEquals("the oldest events are kept", 0, JSONObject.fromObject(lines.get(1)).getInt("i"));
+        assertEquals(1, JSONObject.fromObject(lines.get(2)).getInt("i"));
+
+        AgentEventLog.log("probe", null, null, null);
+        AgentEventLog.flush();
+        assertEquals("the count is reset once written", 4, lines(AgentEventLog.getFile()).size());
+    }
+
+    @Test
+    public void rotated() throws Exception {
+        AgentEventLog.MAX_SIZE = 1;
+        int batches = AgentEventLog.MAX_FILES + 2;
+        for (int i = 0; i < batches; i++) {
+            JSONObject fields = new JSONObject();
+            fields.put("i", i);
+            AgentEventLog.log("probe", null, null, fields);
+            AgentEventLog.flush();
+        }
+
+        File file = AgentEventLog.getFile();
+        List<String> current = lines(file);
+        assertEquals(1, current.size());
+        assertEquals(batches - 1, JSONObject.fromObject(current.get(0)).getInt("i"));
+        for (int i = 1; i <= AgentEventLog.MAX_FILES; i++) {
+            List<String> rotated = lines(new File(file.getParentFile(), file.getName() + "." + i));
+            assertEquals(1, rotated.size());
+            assertEquals(batches - 1 - i, JSONObject.fromObject(rotated.get(0)).getInt("i"));
+        }
+        assertFalse("only MAX_FILES are kept",
+                new File(file.getParentFile(), file.getName() + "." + (AgentEventLog.MAX_FILES + 1)).exists());
+    }
+
+    private static List<String> lines(File file) throws Exception {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
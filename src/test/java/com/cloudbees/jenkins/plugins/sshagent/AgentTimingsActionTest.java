@@ -0,0 +1,150 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.util.XStream2;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AgentTimingsActionTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @ClassRule
+    public static BuildWatcher buildWatcher = new BuildWatcher();
+
+    @Before
+    public void credentials() throws Exception {
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(
+                CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test"));
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(
+                CredentialsScope.GLOBAL, "nested", "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getOtherPrivateKey()), null, "nested"));
+        SystemCredentialsProvider.getInstance().save();
+    }
+
+    @Test
+    public void phasesRecordedAfterAReload() throws Exception {
+        AgentTimings timings = new AgentTimings("node");
+        timings.record(AgentTimings.PROBE, "a", TimeUnit.MILLISECONDS.toNanos(10));
+        XStream2 xstream = new XStream2();
+        AgentTimings reloaded = (AgentTimings) xstream.fromXML(xstream.toXML(timings));
+        reloaded.record(AgentTimings.PROBE, "b", TimeUnit.MILLISECONDS.toNanos(10));
+        long span = reloaded.getSpanMicros(AgentTimings.PROBE);
+        assertTrue(span + "us", span >= TimeUnit.MILLISECONDS.toMicros(10));
+        assertTrue(span + "us", span < TimeUnit.SECONDS.toMicros(10));
+    }
+
+    @Test
+    public void phasesOfABlock() throws Exception {
+        WorkflowRun b = run("phasesOfABlock", ""
+                + "node {\n"
+                + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                + "    echo 'inside'\n"
+                + "  }\n"
+                + "}\n");
+
+        List<AgentTimings> agents = agents(b);
+        assertEquals(1, agents.size());
+        AgentTimings timings = agents.get(0);
+        assertThat(timings.getFactory(), notNullValue());
+        assertEquals(b.getExternalizableId(), timings.getBuild());
+        List<String> names = new ArrayList<String>();
+        for (AgentTimings.Phase phase : timings.getPhases()) {
+            names.add(phase.getName());
+        }
+        assertEquals(names.toString(), AgentTimings.CREDENTIALS, names.get(0));
+        assertEquals(names.toString(), AgentTimings.STOP, names.get(names.size() - 1));
+        Set<String> distinct = new LinkedHashSet<String>(names);
+        List<String> expected = new ArrayList<String>();
+        expected.add(AgentTimings.CREDENTIALS);
+        expected.add(AgentTimings.PROBE);
+        expected.add(AgentTimings.START);
+        expected.add(AgentTimings.IDENTITY);
+        expected.add(AgentTimings.STOP);
+        assertEquals(expected, new ArrayList<String>(distinct));
+    }
+
+    @Test
+    public void borrowingBlockAddsNothing() throws Exception {
+        WorkflowRun b = run("borrowingBlockAddsNothing", ""
+                + "node {\n"
+                + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                + "    sshagent (credentials: ['nested']) {\n"
+                + "      echo 'nested'\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        r.assertLogContains(Messages.SSHAgentStepExecution_UsingEnclosingAgent(), b);
+        List<AgentTimings> agents = agents(b);
+        assertEquals(1, agents.size());
+        assertEquals("only the credential of the enclosing block is timed", 1,
+                count(agents.get(0), AgentTimings.IDENTITY));
+    }
+
+    @Test
+    public void joiningASharedAgentAddsNothing() throws Exception {
+        WorkflowRun b = run("joiningASharedAgentAddsNothing", ""
+                + "node {\n"
+                + "  def branches = [:]\n"
+                + "  for (int i = 0; i < 3; i++) {\n"
+                + "    branches[\"branch${i}\"] = {\n"
+                + "      sshagent (credentials: ['" + CREDENTIAL_ID + "'], shared: true) {\n"
+                + "        sleep 2\n"
+                + "      }\n"
+                + "    }\n"
+                + "  }\n"
+                + "  parallel branches\n"
+                + "}\n");
+
+        String log = JenkinsRule.getLog(b);
+        assertEquals(log, 2, StringUtils.countMatches(log, Messages.SSHAgentStepExecution_UsingSharedAgent()));
+        List<AgentTimings> agents = agents(b);
+        assertEquals(1, agents.size());
+        assertEquals(1, count(agents.get(0), AgentTimings.START));
+    }
+
+    private WorkflowRun run(String name, String script) throws Exception {
+        WorkflowJob job = r.jenkins.createProject(WorkflowJob.class, name);
+        job.setDefinition(new CpsFlowDefinition(script, true));
+        return r.assertBuildStatusSuccess(job.scheduleBuild2(0));
+    }
+
+    private static List<AgentTimings> agents(WorkflowRun b) {
+        AgentTimingsAction action = b.getAction(AgentTimingsAction.class);
+        assertThat(action, notNullValue());
+        return action.getAgents();
+    }
+
+    private static int count(AgentTimings timings, String name) {
+        int count = 0;
+        for (AgentTimings.Phase phase : timings.getPhases()) {
+            if (name.equals(phase.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,107 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class FactoryStatisticsTest {
+
+    private final RemoteAgentFactory a = new FactoryA();
+    private final RemoteAgentFactory b = new FactoryB();
+    private final RemoteAgentFactory c = new FactoryC();
+
+    @Test
+    public void unknownNodeKeepsOrder() {
+        assertFalse(FactoryStatistics.hasHistory("unknownNodeKeepsOrder"));
+        assertEquals(Arrays.asList(c, b, a), FactoryStatistics.rank("unknownNodeKeepsOrder", Arrays.asList(c, b, a)));
+    }
+
+    @Test
+    public void fastestFirst() {
+        String node = "fastestFirst";
+        succeed(node, a, 30, 3);
+        succeed(node, b, 10, 3);
+        assertTrue(FactoryStatistics.hasHistory(node));
+        assertEquals(Arrays.asList(b, a, c), FactoryStatistics.rank(node, Arrays.asList(a, b, c)));
+    }
+
+    @Test
+    public void rankedOnlyWithEnoughHistory() {
+        String node = "rankedOnlyWithEnoughHistory";
+        succeed(node, a, 30, 3);
+        succeed(node, b, 1, 2);
+        assertEquals("b is not ranked on two starts", Arrays.asList(a, c, b),
+                FactoryStatistics.rank(node, Arrays.asList(c, b, a)));
+        succeed(node, b, 1, 1);
+        assertEquals(Arrays.asList(b, a, c), FactoryStatistics.rank(node, Arrays.asList(c, b, a)));
+    }
+
+    @Test
+    public void demotedAfterFailure() {
+        String node = "demotedAfterFailure";
+        succeed(node, a, 30, 3);
+        succeed(node, b, 10, 3);
+        FactoryStatistics.recordFailure(node, b);
+        assertEquals(Arrays.asList(a, c, b), FactoryStatistics.rank(node, Arrays.asList(a, b, c)));
+        FactoryStatistics.recordFailure(node, c);
+        assertEquals(Arrays.asList(a, b, c), FactoryStatistics.rank(node, Arrays.asList(a, b, c)));
+        succeed(node, b, 10, 1);
+        assertEquals("a success ends the cool down", Arrays.asList(b, a, c),
+                FactoryStatistics.rank(node, Arrays.asList(a, b, c)));
+    }
+
+    @Test
+    public void exploresFactoriesWithoutHistory() {
+        assumeTrue(FactoryStatistics.EXPLORE_INTERVAL > 3);
+        String node = "exploresFactoriesWithoutHistory";
+        List<RemoteAgentFactory> factories = Arrays.asList(a, b, c);
+        succeed(node, a, 10, FactoryStatistics.EXPLORE_INTERVAL - 1);
+        assertEquals(Arrays.asList(a, b, c), FactoryStatistics.rank(node, factories));
+        succeed(node, a, 10, 1);
+        assertEquals("b gets its turn", Arrays.asList(b, a, c), FactoryStatistics.rank(node, factories));
+        FactoryStatistics.recordFailure(node, b);
+        assertEquals("c gets its turn once b failed", Arrays.asList(c, a, b), FactoryStatistics.rank(node, factories));
+        succeed(node, c, 5, 1);
+        assertEquals(Arrays.asList(a, c, b), FactoryStatistics.rank(node, factories));
+    }
+
+    private static void succeed(String node, RemoteAgentFactory factory, long millis, int times) {
+        for (int i = 0; i < times; i++) {
+            FactoryStatistics.recordSuccess(node, factory, TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private abstract static class TestFactory extends RemoteAgentFactory {
+        @Override
+        public String getDisplayName() {
+            return getClass().getSimpleName();
+        }
+
+        @Override
+        public boolean isSupported(Launcher launcher, TaskListener listener) {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return getDisplayName();
+        }
+    }
+
+    private static final class FactoryA extends TestFactory {
+    }
+
+    private static final class FactoryB extends TestFactory {
+    }
+
+    private static final class FactoryC extends TestFactory {
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static final int LAST = LatencyHistogram.index(Long.MAX_VALUE);
+
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.highest(LatencyHistogram.index(value)));
+        }
+        assertEquals("from 16 on, buckets hold several values", 17,
+                LatencyHistogram.highest(LatencyHistogram.index(16)));
+    }
+
+    @Test
+    public void bucketEdges() {
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highest(LAST));
+        for (int i = 0; i < LAST; i++) {
+            long highest = LatencyHistogram.highest(i);
+            assertEquals("highest value of bucket " + i, i, LatencyHistogram.index(highest));
+            assertEquals("first value after bucket " + i, i + 1, LatencyHistogram.index(highest + 1));
+        }
+    }
+
+    @Test
+    public void relativeErrorIsBounded() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            long highest = LatencyHistogram.highest(LatencyHistogram.index(value));
+            assertTrue(value + " <= " + highest, value <= highest);
+            assertTrue(value + " within 12.5% of " + highest, highest - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertWithin(5000, histogram.getPercentile(50));
+        assertWithin(9900, histogram.getPercentile(99));
+        assertWithin(10000, histogram.getPercentile(100));
+        assertWithin(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void negativeValuesAreZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is at least " + expected, actual >= expected);
+        assertTrue(actual + " is within 12.5% of " + expected, actual - expected <= expected / 8);
+    }
+}
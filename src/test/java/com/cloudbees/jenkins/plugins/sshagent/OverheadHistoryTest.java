@@ -0,0 +1,131 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.gargoylesoftware.htmlunit.html.HtmlForm;
+import hudson.security.csrf.DefaultCrumbIssuer;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OverheadHistoryTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Before
+    @After
+    public void clear() {
+        OverheadHistory.clear();
+    }
+
+    @Test
+    public void ringBufferWraps() {
+        int capacity = OverheadHistory.CAPACITY;
+        for (int build = 1; build <= capacity + 5; build++) {
+            OverheadHistory.add(entry("job", build, "node", 10, 0));
+        }
+        List<OverheadHistory.Entry> entries = OverheadHistory.getEntries();
+        assertEquals(capacity, entries.size());
+        assertEquals("the oldest entries were dropped", 6, entries.get(0).getBuild());
+        assertEquals(capacity + 5, entries.get(capacity - 1).getBuild());
+        for (int i = 1; i < entries.size(); i++) {
+            assertEquals(entries.get(i - 1).getBuild() + 1, entries.get(i).getBuild());
+        }
+    }
+
+    @Test
+    public void concurrentProbesCountOnce() {
+        AgentTimings timings = new AgentTimings("node");
+        timings.record(AgentTimings.CREDENTIALS, null, TimeUnit.MILLISECONDS.toNanos(10));
+        // three providers probed at the same time, answering together
+        timings.record(AgentTimings.PROBE, "a", TimeUnit.MILLISECONDS.toNanos(1500));
+        timings.record(AgentTimings.PROBE, "b", TimeUnit.MILLISECONDS.toNanos(1500));
+        timings.record(AgentTimings.PROBE, "c", TimeUnit.MILLISECONDS.toNanos(1500));
+        timings.record(AgentTimings.START, "a", TimeUnit.MILLISECONDS.toNanos(100));
+
+        OverheadHistory.Entry entry = new OverheadHistory.Entry("job", 1, timings);
+        assertTrue(entry.getProbeMicros() + "us", entry.getProbeMicros() >= TimeUnit.MILLISECONDS.toMicros(1500));
+        assertTrue(entry.getProbeMicros() + "us", entry.getProbeMicros() < TimeUnit.MILLISECONDS.toMicros(2000));
+        assertEquals(entry.getProbeMicros() + TimeUnit.MILLISECONDS.toMicros(110), entry.getSetupMicros());
+
+        OverheadHistory.add(entry);
+        OverheadHistory.add(new OverheadHistory.Entry("job", 2, timings));
+        List<SSHAgentManagementLink.NodeOverhead> nodes = new SSHAgentManagementLink().getNodes();
+        assertEquals(1, nodes.size());
+        assertEquals(2, nodes.get(0).getAgents());
+        assertFalse("4.5s of probes, but only 1.5s of waiting", nodes.get(0).isSlowProbe());
+    }
+
+    @Test
+    public void slowProbe() {
+        OverheadHistory.add(entry("job", 1, "slow", 0, 3000));
+        OverheadHistory.add(entry("job", 2, "fast", 0, 100));
+        List<SSHAgentManagementLink.NodeOverhead> nodes = new SSHAgentManagementLink().getNodes();
+        assertEquals("fast", nodes.get(0).getName());
+        assertFalse(nodes.get(0).isSlowProbe());
+        assertEquals("slow", nodes.get(1).getName());
+        assertTrue(nodes.get(1).isSlowProbe());
+    }
+
+    @Test
+    public void jobsRankedByOverhead() {
+        for (int build = 1; build <= 3; build++) {
+            OverheadHistory.add(entry("frequent", build, "node", 100, 0));
+        }
+        OverheadHistory.add(entry("slow", 1, "node", 500, 0));
+        OverheadHistory.add(entry("quick", 1, "node", 10, 0));
+
+        List<SSHAgentManagementLink.JobOverhead> jobs = new SSHAgentManagementLink().getJobs();
+        assertEquals(3, jobs.size());
+        assertEquals("slow", jobs.get(0).getName());
+        assertEquals("frequent", jobs.get(1).getName());
+        assertEquals(3, jobs.get(1).getAgents());
+        assertEquals("quick", jobs.get(2).getName());
+    }
+
+    @Test
+    public void notLoadedUnlessPersisted() throws Exception {
+        SSHAgentConfiguration.get().setPersistOverhead(true);
+        OverheadHistory.add(entry("job", 1, "node", 10, 0));
+        OverheadHistory.save();
+        File file = new File(r.jenkins.getRootDir(), OverheadHistory.class.getName() + ".xml");
+        assertTrue(file.exists());
+
+        OverheadHistory.forget();
+        OverheadHistory.load();
+        assertEquals(1, OverheadHistory.getEntries().size());
+
+        SSHAgentConfiguration.get().setPersistOverhead(false);
+        OverheadHistory.forget();
+        OverheadHistory.load();
+        assertEquals(0, OverheadHistory.getEntries().size());
+        assertFalse("deleted once no longer persisted", file.exists());
+    }
+
+    @Test
+    public void clearButton() throws Exception {
+        r.jenkins.setCrumbIssuer(new DefaultCrumbIssuer(false));
+        OverheadHistory.add(entry("job", 1, "node", 10, 0));
+        HtmlForm form = r.createWebClient().goTo("ssh-agent").getFormByName("clear");
+        r.submit(form);
+        assertEquals(0, OverheadHistory.getEntries().size());
+    }
+
+    private static OverheadHistory.Entry entry(String job, int build, String node, long setupMillis,
+                                               long probeMillis) {
+        AgentTimings timings = new AgentTimings(node);
+        if (probeMillis > 0) {
+            timings.record(AgentTimings.PROBE, "probe", TimeUnit.MILLISECONDS.toNanos(probeMillis));
+        }
+        timings.record(AgentTimings.START, "start", TimeUnit.MILLISECONDS.toNanos(setupMillis));
+        return new OverheadHistory.Entry(job, build, timings);
+    }
+}
@@ -0,0 +1,31 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.slaves.DumbSlave;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertTrue;
+
+public class PrewarmComputerListenerTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    /**
+     * Verifies that enabling the option starts an agent on a node when it comes online, with whichever provider
+     * {@link RemoteAgents} picks for it.
+     */
+    @Test
+    public void warmsUpNewNodes() throws Exception {
+        SSHAgentConfiguration.get().setPrewarm(true);
+        DumbSlave slave = r.createOnlineSlave();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!FactoryStatistics.hasHistory(slave.getNodeName()) && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue("an agent was started on " + slave.getNodeName(),
+                FactoryStatistics.hasHistory(slave.getNodeName()));
+    }
+}
@@ -0,0 +1,158 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.FilePath;
+import hudson.remoting.Channel;
+import hudson.remoting.ChannelBuilder;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import hudson.slaves.DumbSlave;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jenkins.security.MasterToSlaveCallable;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.remoting.Role;
+import org.jenkinsci.remoting.RoleChecker;
+import org.jenkinsci.remoting.RoleSensitive;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteAgentHandleTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @ClassRule
+    public static BuildWatcher buildWatcher = new BuildWatcher();
+
+    /**
+     * Verifies that an agent started on a node is registered there while the block runs, and forgotten afterwards.
+     */
+    @Test
+    public void releasedAfterBuild() throws Exception {
+        SystemCredentialsProvider.getInstance().getCredentials().add(new BasicSSHUserPrivateKey(
+                CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test"));
+        SystemCredentialsProvider.getInstance().save();
+        DumbSlave slave = r.createOnlineSlave();
+
+        WorkflowJob job = r.jenkins.createProject(WorkflowJob.class, "releasedAfterBuild");
+        job.setDefinition(new CpsFlowDefinition(""
+                + "node('" + slave.getNodeName() + "') {\n"
+                + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                + "    sh 'touch started; while [ ! -f release ]; do sleep 1; done'\n"
+                + "  }\n"
+                + "}\n", true));
+        WorkflowRun b = job.scheduleBuild2(0).waitForStart();
+        FilePath workspace = slave.getWorkspaceFor(job);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!workspace.child("started").exists() && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue("the block is running", workspace.child("started").exists());
+        assertArrayEquals(new int[]{1, 1}, slave.getChannel().call(new Registry()));
+
+        workspace.child("release").touch(0);
+        r.assertBuildStatusSuccess(r.waitForCompletion(b));
+        assertArrayEquals(new int[]{0, 0}, slave.getChannel().call(new Registry()));
+    }
+
+    /**
+     * Verifies that the agents started through a channel are stopped when it closes. The node of a
+     * {@link DumbSlave} exits as soon as it is disconnected, so the channel is set up in this JVM instead.
+     */
+    @Test
+    public void stoppedWhenDisconnected() throws Exception {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            final FastPipedInputStream toNode = new FastPipedInputStream();
+            final FastPipedOutputStream fromController = new FastPipedOutputStream(toNode);
+            FastPipedInputStream toController = new FastPipedInputStream();
+            final FastPipedOutputStream fromNode = new FastPipedOutputStream(toController);
+            Future<Channel> node = executor.submit(new Callable<Channel>() {
+                @Override
+                public Channel call() throws Exception {
+                    return new ChannelBuilder("node", executor).withRoleChecker(ANY_ROLE).build(toNode, fromNode);
+                }
+            });
+            Channel controller = new ChannelBuilder("controller", executor).withRoleChecker(ANY_ROLE)
+                    .build(toController, fromController);
+            node.get(10, TimeUnit.SECONDS);
+
+            RemoteAgent agent = controller.call(new StartFakeAgent());
+            assertEquals("/fake", agent.getSocket());
+            assertArrayEquals(new int[]{1, 1}, new Registry().call());
+
+            controller.close();
+            assertTrue("stopped when the channel closed", FakeAgent.STOPPED.await(10, TimeUnit.SECONDS));
+            assertArrayEquals(new int[]{0, 0}, new Registry().call());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final RoleChecker ANY_ROLE = new RoleChecker() {
+        @Override
+        public void check(RoleSensitive subject, Collection<Role> expected) {
+        }
+    };
+
+    /**
+     * Counts the agents registered on a node, and those tracked for their channel.
+     */
+    private static final class Registry extends MasterToSlaveCallable<int[], RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int[] call() {
+            return new int[]{RemoteAgentHandle.size(), RemoteAgentHandle.tracked()};
+        }
+    }
+
+    private static final class StartFakeAgent extends MasterToSlaveCallable<RemoteAgent, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public RemoteAgent call() {
+            return RemoteAgentHandle.register(Channel.current(), new FakeAgent());
+        }
+    }
+
+    private static final class FakeAgent implements RemoteAgent {
+        static final CountDownLatch STOPPED = new CountDownLatch(1);
+
+        @Override
+        public String getSocket() {
+            return "/fake";
+        }
+
+        @Override
+        public void addIdentity(String privateKey, String passphrase, String comment) {
+        }
+
+        @Override
+        public void removeIdentity(String privateKey, String passphrase, String comment) {
+        }
+
+        @Override
+        public void stop() {
+            STOPPED.countDown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class RemoteAgentsTest {
+
+    private long probeTimeout;
+
+    @Before
+    public void shortProbeTimeout() {
+        probeTimeout = RemoteAgents.PROBE_TIMEOUT;
+        RemoteAgents.PROBE_TIMEOUT = 1;
+    }
+
+    @After
+    public void restoreProbeTimeout() {
+        RemoteAgents.PROBE_TIMEOUT = probeTimeout;
+    }
+
+    /**
+     * Verifies that a provider which takes a while to fail to start does not use up the time the providers after it
+     * have to answer their probes.
+     */
+    @Test
+    public void slowFailureDoesNotTimeOutLaterProbes() throws Exception {
+        TaskListener listener = StreamTaskListener.fromStdout();
+        RemoteAgentFactory failing = new FakeFactory("failing", 0, 1500, false);
+        RemoteAgentFactory working = new FakeFactory("working", 2000, 0, true);
+
+        RemoteAgents.Started started = RemoteAgents.start(new Launcher.LocalLauncher(listener), listener, null, null,
+                null, Arrays.asList(failing, working));
+
+        assertSame(working, started.getFactory());
+    }
+
+    /**
+     * Verifies that the probes still running once a provider started are cancelled without being timed.
+     */
+    @Test
+    public void cancelledProbesAreNotTimed() throws Exception {
+        TaskListener listener = StreamTaskListener.fromStdout();
+        RemoteAgentFactory fast = new FakeFactory("fast", 0, 0, true);
+        RemoteAgentFactory slow = new FakeFactory("slow", 5000, 0, true);
+        AgentTimings timings = new AgentTimings(null);
+
+        RemoteAgents.Started started = RemoteAgents.start(new Launcher.LocalLauncher(listener), listener, null, null,
+                timings, Arrays.asList(fast, slow));
+
+        assertSame(fast, started.getFactory());
+        Thread.sleep(500); // let the cancelled probe wind down
+        for (AgentTimings.Phase phase : timings.getPhases()) {
+            assertNotEquals(phase.toString(), "slow", phase.getDetail());
+        }
+    }
+
+    private static final class FakeFactory extends RemoteAgentFactory {
+        private final String name;
+        private final long probeMillis;
+        private final long startMillis;
+        private final boolean starts;
+
+        FakeFactory(String name, long probeMillis, long startMillis, boolean starts) {
+            this.name = name;
+            this.probeMillis = probeMillis;
+            this.startMillis = startMillis;
+            this.starts = starts;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return name;
+        }
+
+        @Override
+        public boolean isSupported(Launcher launcher, TaskListener listener) {
+            try {
+                Thread.sleep(probeMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public RemoteAgent start(Launcher launcher, TaskListener listener, FilePath temp) throws Throwable {
+            Thread.sleep(startMillis);
+            if (!starts) {
+                throw new IllegalStateException(name + " does not start");
+            }
+            return new FakeAgent();
+        }
+    }
+
+    private static final class FakeAgent implements RemoteAgent {
+        @Override
+        public String getSocket() {
+            return "/fake";
+        }
+
+        @Override
+        public void addIdentity(String privateKey, String passphrase, String comment) {
+        }
+
+        @Override
+        public void removeIdentity(String privateKey, String passphrase, String comment) {
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
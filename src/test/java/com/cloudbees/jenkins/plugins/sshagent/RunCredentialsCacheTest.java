@@ -0,0 +1,136 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.model.Fingerprint;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.RunListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.BuildWatcher;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsCollectionContaining.hasItem;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class RunCredentialsCacheTest extends SSHAgentBase {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @ClassRule
+    public static BuildWatcher buildWatcher = new BuildWatcher();
+
+    /**
+     * Verifies that several {@code sshagent} blocks of a build walk the credentials providers, and track the
+     * credential, only as often as a single lookup would.
+     */
+    @Test
+    public void resolvedOncePerBuild() throws Exception {
+        CountingProvider provider = CountingProvider.get();
+        provider.credentials.add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test"));
+
+        WorkflowJob job = r.jenkins.createProject(WorkflowJob.class, "resolvedOncePerBuild");
+        job.setDefinition(new CpsFlowDefinition(""
+                + "node {\n"
+                + "  for (int i = 0; i < 3; i++) {\n"
+                + "    sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                + "      echo \"block ${i}\"\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n", true));
+        provider.lookups.set(0);
+        WorkflowRun b = r.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        int duringBuild = provider.lookups.getAndSet(0);
+
+        CredentialsProvider.findCredentialById(CREDENTIAL_ID, SSHUserPrivateKey.class, b);
+        int perLookup = provider.lookups.get();
+        assertThat(perLookup > 0, is(true));
+        assertEquals(perLookup, duringBuild);
+
+        Fingerprint fingerprint = CredentialsProvider.getFingerprintOf(provider.credentials.get(0));
+        assertThat(fingerprint, notNullValue());
+        assertThat(fingerprint.getJobs(), hasItem(is(job.getFullName())));
+    }
+
+    /**
+     * Verifies that the credentials of a build are forgotten once it is finalized.
+     */
+    @Test
+    public void evictedOnFinalized() throws Exception {
+        CountingProvider provider = CountingProvider.get();
+        provider.credentials.add(new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test"));
+
+        WorkflowJob job = r.jenkins.createProject(WorkflowJob.class, "evictedOnFinalized");
+        job.setDefinition(new CpsFlowDefinition("echo 'nothing'", true));
+        WorkflowRun b = r.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        provider.lookups.set(0);
+        SSHUserPrivateKey first = RunCredentialsCache.lookup(CREDENTIAL_ID, b);
+        int perLookup = provider.lookups.get();
+        assertThat(first, notNullValue());
+        assertSame(first, RunCredentialsCache.lookup(CREDENTIAL_ID, b));
+        assertEquals("served from the cache", perLookup, provider.lookups.get());
+
+        RunListener.fireFinalized(b);
+        assertThat(RunCredentialsCache.lookup(CREDENTIAL_ID, b), notNullValue());
+        assertEquals("resolved again once evicted", 2 * perLookup, provider.lookups.get());
+    }
+
+    /**
+     * Serves the credentials of the test and counts how often it is asked for SSH keys.
+     */
+    @TestExtension
+    public static class CountingProvider extends CredentialsProvider {
+
+        final List<Credentials> credentials = new ArrayList<Credentials>();
+
+        final AtomicInteger lookups = new AtomicInteger();
+
+        static CountingProvider get() {
+            return all().get(CountingProvider.class);
+        }
+
+        @Override
+        public <C extends Credentials> List<C> getCredentials(Class<C> type, ItemGroup itemGroup,
+                                                              Authentication authentication) {
+            return getCredentials(type, itemGroup, authentication, Collections.<DomainRequirement>emptyList());
+        }
+
+        @Override
+        public <C extends Credentials> List<C> getCredentials(Class<C> type, ItemGroup itemGroup,
+                                                              Authentication authentication,
+                                                              List<DomainRequirement> domainRequirements) {
+            if (type == SSHUserPrivateKey.class) {
+                lookups.incrementAndGet();
+            }
+            List<C> result = new ArrayList<C>();
+            for (Credentials c : credentials) {
+                if (type.isInstance(c)) {
+                    result.add(type.cast(c));
+                }
+            }
+            return result;
+        }
+    }
+}
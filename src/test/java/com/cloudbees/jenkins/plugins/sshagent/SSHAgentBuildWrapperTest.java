@@ -1,5 +1,6 @@
 package com.cloudbees.jenkins.plugins.sshagent;
 
+import com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgentFactory;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
 import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
@@ -11,6 +12,7 @@ import hudson.model.FreeStyleProject;
 import hudson.model.Result;
 import hudson.tasks.Shell;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Future;
 import org.junit.ClassRule;
@@ -251,4 +253,70 @@ public class SSHAgentBuildWrapperTest extends SSHAgentBase {
         stopMockSSHServer();
     }
 
+    @Test
+    public void sshAgentWithPinnedFactory() throws Exception {
+        startMockSSHServer();
+
+        List<String> credentialIds = new ArrayList<String>();
+        credentialIds.add(CREDENTIAL_ID);
+
+        SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, credentialIds.get(0), "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+        SystemCredentialsProvider.getInstance().getCredentials().add(key);
+        SystemCredentialsProvider.getInstance().save();
+
+        SSHAgentConfiguration.FactoryRule rule =
+                new SSHAgentConfiguration.FactoryRule("", ExecRemoteAgentFactory.class.getName());
+        rule.setPinned(true);
+        SSHAgentConfiguration.get().setRules(Collections.singletonList(rule));
+
+        FreeStyleProject job = r.createFreeStyleProject();
+        job.setAssignedNode(r.createSlave());
+
+        SSHAgentBuildWrapper sshAgent = new SSHAgentBuildWrapper(credentialIds, false);
+        job.getBuildWrappersList().add(sshAgent);
+
+        Shell shell = new Shell("set | grep SSH_AUTH_SOCK "
+                + "&& ssh-add -l "
+                + "&& ssh -o NoHostAuthenticationForLocalhost=yes -o StrictHostKeyChecking=no -p " + getAssignedPort()
+                + " -v -l cloudbees " + SSH_SERVER_HOST);
+        job.getBuildersList().add(shell);
+
+        FreeStyleBuild build = r.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        r.assertLogContains(Messages.RemoteAgents_UsingPinnedFactory(new ExecRemoteAgentFactory().getDisplayName()), build);
+        r.assertLogNotContains("[ssh-agent]   ", build);
+
+        stopMockSSHServer();
+    }
+
+    @Test
+    public void sshAgentTimingsRecorded() throws Exception {
+        SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+        SystemCredentialsProvider.getInstance().getCredentials().add(key);
+        SystemCredentialsProvider.getInstance().save();
+
+        FreeStyleProject job = r.createFreeStyleProject();
+        job.setAssignedNode(r.createSlave());
+        job.getBuildWrappersList().add(new SSHAgentBuildWrapper(Collections.singletonList(CREDENTIAL_ID), false));
+
+        FreeStyleBuild build = r.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        AgentTimingsAction action = build.getAction(AgentTimingsAction.class);
+        assertThat(action, notNullValue());
+        assertThat(action.getAgents().size(), is(1));
+        AgentTimings timings = action.getAgents().get(0);
+        assertThat(timings.getFactory(), notNullValue());
+        List<String> phases = new ArrayList<String>();
+        for (AgentTimings.Phase phase : timings.getPhases()) {
+            phases.add(phase.getName());
+        }
+        assertThat(phases, hasItem(AgentTimings.CREDENTIALS));
+        assertThat(phases, hasItem(AgentTimings.START));
+        assertThat(phases, hasItem(AgentTimings.IDENTITY));
+        assertThat(phases, hasItem(AgentTimings.STOP));
+
+        assertThat(r.createWebClient().goTo("ssh-agent").getWebResponse().getContentAsString()
+                .contains(job.getFullName()), is(true));
+    }
+
 }
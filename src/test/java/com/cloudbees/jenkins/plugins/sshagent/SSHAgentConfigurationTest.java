@@ -0,0 +1,114 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.jna.JNRRemoteAgentFactory;
+import hudson.ExtensionList;
+import hudson.model.Node;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import net.sf.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.Stapler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SSHAgentConfigurationTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Test
+    public void configRoundtrip() throws Exception {
+        SSHAgentConfiguration config = SSHAgentConfiguration.get();
+        SSHAgentConfiguration.FactoryRule pinned =
+                new SSHAgentConfiguration.FactoryRule("linux && docker", ExecRemoteAgentFactory.class.getName());
+        pinned.setPinned(true);
+        SSHAgentConfiguration.FactoryRule preferred =
+                new SSHAgentConfiguration.FactoryRule("", JNRRemoteAgentFactory.class.getName());
+        List<SSHAgentConfiguration.FactoryRule> rules = Arrays.asList(pinned, preferred);
+        config.setRules(rules);
+        config.setPrewarm(true);
+        config.setPersistOverhead(true);
+        config.setEventLog(true);
+
+        r.configRoundtrip();
+
+        assertEquals(2, config.getRules().size());
+        for (int i = 0; i < rules.size(); i++) {
+            r.assertEqualDataBoundBeans(rules.get(i), config.getRules().get(i));
+        }
+        assertNull("a blank label applies to any node", config.getRules().get(1).getLabel());
+        assertTrue(config.isPrewarm());
+        assertTrue(config.isPersistOverhead());
+        assertTrue(config.isEventLog());
+    }
+
+    /**
+     * Verifies that a form without any rule, which does not submit the repeatable at all, removes the rules, and
+     * that unchecked options are turned off.
+     */
+    @Test
+    public void emptyFormResetsTheConfiguration() throws Exception {
+        final SSHAgentConfiguration config = SSHAgentConfiguration.get();
+        config.setRules(Collections.singletonList(
+                new SSHAgentConfiguration.FactoryRule("linux", ExecRemoteAgentFactory.class.getName())));
+        config.setPersistOverhead(true);
+        config.setEventLog(true);
+
+        r.executeOnServer(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                JSONObject json = new JSONObject();
+                json.put("prewarm", true);
+                config.configure(Stapler.getCurrentRequest(), json);
+                return null;
+            }
+        });
+
+        assertTrue(config.getRules().isEmpty());
+        assertTrue(config.isPrewarm());
+        assertFalse(config.isPersistOverhead());
+        assertFalse(config.isEventLog());
+    }
+
+    @Test
+    public void labelMatching() throws Exception {
+        Node linux = r.createSlave("linux-agent", "linux docker", null);
+        Node windows = r.createSlave("windows-agent", "windows", null);
+
+        SSHAgentConfiguration.FactoryRule any = new SSHAgentConfiguration.FactoryRule(" ", "factory");
+        assertTrue(any.matches(linux));
+        assertTrue(any.matches(windows));
+        assertTrue("rules without label apply to unknown nodes", any.matches(null));
+
+        SSHAgentConfiguration.FactoryRule docker = new SSHAgentConfiguration.FactoryRule("linux && docker", "factory");
+        assertTrue(docker.matches(linux));
+        assertFalse(docker.matches(windows));
+        assertFalse(docker.matches(null));
+
+        SSHAgentConfiguration.FactoryRule notWindows = new SSHAgentConfiguration.FactoryRule("!windows", "factory");
+        assertTrue(notWindows.matches(linux));
+        assertFalse(notWindows.matches(windows));
+
+        SSHAgentConfiguration.FactoryRule invalid = new SSHAgentConfiguration.FactoryRule("linux &&", "factory");
+        assertFalse("an invalid expression matches nothing", invalid.matches(linux));
+    }
+
+    @Test
+    public void missingFactory() {
+        ExtensionList<RemoteAgentFactory> installed = r.jenkins.getExtensionList(RemoteAgentFactory.class);
+        RemoteAgentFactory exec = installed.get(ExecRemoteAgentFactory.class);
+        assertSame(exec, new SSHAgentConfiguration.FactoryRule(null, ExecRemoteAgentFactory.class.getName())
+                .find(installed));
+        assertNull("no longer installed", new SSHAgentConfiguration.FactoryRule(null, "com.example.GoneFactory")
+                .find(installed));
+    }
+}
@@ -0,0 +1,250 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshagent.exec.ExecRemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.jdk.JDKRemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.jna.JNRRemoteAgentFactory;
+import com.cloudbees.jenkins.plugins.sshagent.mina.MinaRemoteAgentFactory;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates load on an ssh-agent socket: a number of concurrent connections each sending a mix of identity listing
+ * and sign requests, reporting the throughput and latency percentiles.
+ * <p>
+ * Run against a backend started for the purpose, {@code jnr}, {@code jdk}, {@code mina} or {@code exec}, or against
+ * the agent at an existing {@code SSH_AUTH_SOCK} path:
+ * <pre>
+ * java -cp ... com.cloudbees.jenkins.plugins.sshagent.SSHAgentLoadGenerator jnr [connections] [requests] [sign ratio]
+ * </pre>
+ */
+public class SSHAgentLoadGenerator {
+
+    private final String socket;
+
+    private final int connections;
+
+    private final int requests;
+
+    private final double signRatio;
+
+    private final byte[] data;
+
+    /**
+     * Constructor.
+     *
+     * @param socket      the agent socket.
+     * @param connections the number of concurrent connections.
+     * @param requests    the number of requests sent on each connection.
+     * @param signRatio   the share of sign requests, the others listing the identities.
+     */
+    public SSHAgentLoadGenerator(String socket, int connections, int requests, double signRatio) {
+        this.socket = socket;
+        this.connections = connections;
+        this.requests = requests;
+        this.signRatio = signRatio;
+        this.data = new byte[200];
+        ThreadLocalRandom.current().nextBytes(data);
+    }
+
+    /**
+     * Starts an agent with the key of {@link SSHAgentBase#getPrivateKey()}.
+     *
+     * @param backend {@code jnr}, {@code jdk}, {@code mina} or {@code exec}.
+     * @param temp    the directory for the socket.
+     * @return the agent.
+     */
+    public static RemoteAgent start(String backend, File temp) throws Throwable {
+        TaskListener listener = StreamTaskListener.fromStderr();
+        Launcher launcher = new Launcher.LocalLauncher(listener);
+        RemoteAgentFactory factory;
+        switch (backend.toLowerCase(Locale.ENGLISH)) {
+            case "jnr":
+                factory = new JNRRemoteAgentFactory();
+                break;
+            case "jdk":
+                factory = new JDKRemoteAgentFactory();
+                break;
+            case "mina":
+                factory = new MinaRemoteAgentFactory();
+                break;
+            case "exec":
+                factory = new ExecRemoteAgentFactory();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+        if (!factory.isSupported(launcher, listener)) {
+            throw new IllegalStateException(factory.getDisplayName() + " is not supported here");
+        }
+        RemoteAgent agent = factory.start(launcher, listener, new FilePath(temp));
+        agent.addIdentity(new SSHAgentBase().getPrivateKey(), "cloudbees", "load");
+        return agent;
+    }
+
+    /**
+     * Generates the load.
+     *
+     * @return the measurements.
+     */
+    public Result run() throws Exception {
+        final byte[] key;
+        AgentClient probe = AgentClient.connect(socket);
+        try {
+            List<byte[]> keys = probe.requestIdentities();
+            key = keys.isEmpty() ? null : keys.get(0);
+        } finally {
+            probe.close();
+        }
+        if (key == null && signRatio > 0) {
+            throw new IllegalStateException("The agent at " + socket + " has no identity to sign with");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        try {
+            final CountDownLatch ready = new CountDownLatch(connections);
+            final CountDownLatch go = new CountDownLatch(1);
+            List<Future<long[]>> workers = new ArrayList<Future<long[]>>(connections);
+            for (int i = 0; i < connections; i++) {
+                workers.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws Exception {
+                        long[] latencies = new long[requests];
+                        AgentClient client = AgentClient.connect(socket);
+                        try {
+                            ready.countDown();
+                            go.await();
+                            for (int r = 0; r < requests; r++) {
+                                long start = System.nanoTime();
+                                if (ThreadLocalRandom.current().nextDouble() < signRatio) {
+                                    client.sign(key, data);
+                                } else {
+                                    client.requestIdentities();
+                                }
+                                latencies[r] = System.nanoTime() - start;
+                            }
+                        } finally {
+                            client.close();
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            long[] all = new long[connections * requests];
+            int errors = 0;
+            int n = 0;
+            for (Future<long[]> worker : workers) {
+                try {
+                    long[] latencies = worker.get();
+                    System.arraycopy(latencies, 0, all, n, latencies.length);
+                    n += latencies.length;
+                } catch (ExecutionException e) {
+                    errors++;
+                    e.getCause().printStackTrace();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            long[] samples = Arrays.copyOf(all, n);
+            Arrays.sort(samples);
+            return new Result(samples, errors, elapsed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The measurements of a run.
+     */
+    public static final class Result {
+        private final long[] sorted;
+        private final int failedConnections;
+        private final long elapsedNanos;
+
+        Result(long[] sorted, int failedConnections, long elapsedNanos) {
+            this.sorted = sorted;
+            this.failedConnections = failedConnections;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRequests() {
+            return sorted.length;
+        }
+
+        public int getFailedConnections() {
+            return failedConnections;
+        }
+
+        /**
+         * @return the requests completed per second.
+         */
+        public double getThroughput() {
+            return sorted.length / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * @param p the percentile, e.g. {@code 99.9}.
+         * @return the latency in microseconds.
+         */
+        public double getPercentile(double p) {
+            if (sorted.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH,
+                    "%d requests in %.2fs, %.0f req/s, latency p50 %.0fus p99 %.0fus p999 %.0fus max %.0fus%s",
+                    sorted.length, elapsedNanos / 1e9, getThroughput(),
+                    getPercentile(50), getPercentile(99), getPercentile(99.9), getPercentile(100),
+                    failedConnections == 0 ? "" : ", " + failedConnections + " connections failed");
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 1) {
+            System.err.println("Usage: SSHAgentLoadGenerator jnr|jdk|mina|exec|<socket> [connections] [requests] [sign ratio]");
+            System.exit(2);
+        }
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        double signRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        String target = args[0];
+        if (new File(target).exists()) {
+            System.out.println(new SSHAgentLoadGenerator(target, connections, requests, signRatio).run());
+            return;
+        }
+        File temp = Files.createTempDirectory("agent-load").toFile();
+        RemoteAgent agent = start(target, temp);
+        try {
+            // a first short run to warm up
+            new SSHAgentLoadGenerator(agent.getSocket(), connections, Math.max(1, requests / 10), signRatio).run();
+            System.out.println(target + ": "
+                    + new SSHAgentLoadGenerator(agent.getSocket(), connections, requests, signRatio).run());
+        } finally {
+            agent.stop();
+            FileUtils.deleteQuietly(temp);
+        }
+        TimeUnit.MILLISECONDS.sleep(100); // let the agent threads log their shutdown
+    }
+}
@@ -0,0 +1,198 @@
+package com.cloudbees.jenkins.plugins.sshagent;
+
+import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
+import com.cloudbees.jenkins.plugins.sshcredentials.impl.BasicSSHUserPrivateKey;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.slaves.DumbSlave;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the overhead of an empty {@code sshagent} block and of {@link SSHAgentBuildWrapper} on a local agent,
+ * end to end and broken down into the phases they record in their {@link AgentTimingsAction}.
+ * <p>
+ * Skipped unless enabled, e.g. {@code mvn test -Dtest=SSHAgentOverheadBenchmarkTest -DSSHAgentOverheadBenchmarkTest.ITERATIONS=50}.
+ * The report is written to {@code target/ssh-agent-overhead.json}; copy its phases over {@code baseline.json} next to
+ * this class to record a new baseline. A phase whose median exceeds its baseline by more than the tolerance of the
+ * baseline, or {@code SSHAgentOverheadBenchmarkTest.TOLERANCE} if set, fails the test, and so does a phase the
+ * baseline has no numbers for.
+ */
+public class SSHAgentOverheadBenchmarkTest extends SSHAgentBase {
+
+    private static final Logger LOGGER = Logger.getLogger(SSHAgentOverheadBenchmarkTest.class.getName());
+
+    private static final int ITERATIONS = Integer.getInteger(SSHAgentOverheadBenchmarkTest.class.getSimpleName() + ".ITERATIONS", 0);
+
+    private static final String TOLERANCE = System.getProperty(SSHAgentOverheadBenchmarkTest.class.getSimpleName() + ".TOLERANCE");
+
+    /**
+     * The phases compared, in the order they happen.
+     */
+    private static final String[] PHASES = {
+            AgentTimings.CREDENTIALS, AgentTimings.PROBE, AgentTimings.START, AgentTimings.IDENTITY, AgentTimings.STOP
+    };
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    private final Map<String, List<Long>> samples = new LinkedHashMap<String, List<Long>>();
+
+    @Before
+    public void enabled() {
+        assumeTrue("benchmark not enabled", ITERATIONS > 0);
+    }
+
+    @Test
+    public void overhead() throws Throwable {
+        SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+        SystemCredentialsProvider.getInstance().getCredentials().add(key);
+        SystemCredentialsProvider.getInstance().save();
+        DumbSlave slave = r.createOnlineSlave();
+
+        WorkflowJob pipeline = r.jenkins.createProject(WorkflowJob.class, "pipeline");
+        pipeline.setDefinition(new CpsFlowDefinition(""
+                + "node('" + slave.getNodeName() + "') {\n"
+                + "  sshagent(credentials: ['" + CREDENTIAL_ID + "']) {}\n"
+                + "}\n", true));
+        FreeStyleProject freestyle = r.createFreeStyleProject("freestyle");
+        freestyle.setAssignedNode(slave);
+        freestyle.getBuildWrappersList().add(new SSHAgentBuildWrapper(Collections.singletonList(CREDENTIAL_ID), false));
+
+        int warmup = Math.max(1, ITERATIONS / 5);
+        for (int i = 0; i < warmup + ITERATIONS; i++) {
+            WorkflowRun p = r.buildAndAssertSuccess(pipeline);
+            FreeStyleBuild f = r.buildAndAssertSuccess(freestyle);
+            if (i >= warmup) {
+                record("pipeline", p);
+                record("freestyle", f);
+            }
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("iterations", ITERATIONS);
+        report.put("java", System.getProperty("java.version"));
+        report.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        JSONObject phases = new JSONObject();
+        for (Map.Entry<String, List<Long>> e : samples.entrySet()) {
+            phases.put(e.getKey(), summary(e.getValue()));
+        }
+        report.put("phases", phases);
+        File out = new File("target", "ssh-agent-overhead.json");
+        FileUtils.writeStringToFile(out, report.toString(2), StandardCharsets.UTF_8);
+        LOGGER.log(Level.INFO, "Wrote {0}", out.getAbsolutePath());
+
+        compare(phases);
+    }
+
+    /**
+     * Records the duration of a build and the phases of its agent, as timed by the step or the wrapper.
+     */
+    private void record(String kind, Run<?, ?> build) {
+        record(kind, TimeUnit.MILLISECONDS.toNanos(build.getDuration()));
+        AgentTimingsAction action = build.getAction(AgentTimingsAction.class);
+        assertNotNull(kind + " recorded no timings", action);
+        List<AgentTimings> agents = action.getAgents();
+        assertEquals(kind + " started one agent", 1, agents.size());
+        AgentTimings timings = agents.get(0);
+        for (String phase : PHASES) {
+            // providers probed concurrently count for the time from the first probe to the last one
+            long micros = AgentTimings.PROBE.equals(phase)
+                    ? timings.getSpanMicros(phase)
+                    : timings.getTotalMicros(phase);
+            record(kind + "-" + phase, TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+    }
+
+    private void record(String phase, long nanos) {
+        List<Long> list = samples.get(phase);
+        if (list == null) {
+            list = new ArrayList<Long>();
+            samples.put(phase, list);
+        }
+        list.add(nanos);
+    }
+
+    private static JSONObject summary(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<Long>(nanos);
+        Collections.sort(sorted);
+        long total = 0;
+        for (long n : sorted) {
+            total += n;
+        }
+        JSONObject s = new JSONObject();
+        s.put("count", sorted.size());
+        s.put("minMillis", millis(sorted.get(0)));
+        s.put("medianMillis", millis(sorted.get(sorted.size() / 2)));
+        s.put("p90Millis", millis(sorted.get((int) Math.ceil(0.9 * sorted.size()) - 1)));
+        s.put("maxMillis", millis(sorted.get(sorted.size() - 1)));
+        s.put("meanMillis", millis(total / sorted.size()));
+        return s;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    /**
+     * Compares the medians against the recorded baseline.
+     */
+    private static void compare(JSONObject phases) throws Exception {
+        InputStream is = SSHAgentOverheadBenchmarkTest.class.getResourceAsStream(
+                SSHAgentOverheadBenchmarkTest.class.getSimpleName() + "/baseline.json");
+        assertTrue("baseline.json is missing", is != null);
+        JSONObject file;
+        try {
+            file = JSONObject.fromObject(IOUtils.toString(is, StandardCharsets.UTF_8));
+        } finally {
+            is.close();
+        }
+        double tolerance = TOLERANCE != null ? Double.parseDouble(TOLERANCE) : file.getDouble("tolerance");
+        JSONObject baseline = file.getJSONObject("phases");
+        StringBuilder regressions = new StringBuilder();
+        for (Object phase : phases.keySet()) {
+            JSONObject base = baseline.optJSONObject((String) phase);
+            if (base == null || base.isNullObject() || !base.has("medianMillis")) {
+                regressions.append(String.format("%n  %s: no baseline", phase));
+                continue;
+            }
+            double expected = base.getDouble("medianMillis");
+            double actual = phases.getJSONObject((String) phase).getDouble("medianMillis");
+            if (actual > expected * tolerance) {
+                regressions.append(String.format("%n  %s: median %.3fms, baseline %.3fms", phase, actual, expected));
+            }
+        }
+        if (regressions.length() > 0) {
+            fail("Not within the baseline:" + regressions);
+        }
+    }
+}
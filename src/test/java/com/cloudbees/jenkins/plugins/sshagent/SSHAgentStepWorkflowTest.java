@@ -9,6 +9,9 @@ import hudson.Launcher;
 import hudson.model.Fingerprint;
 import hudson.util.StreamTaskListener;
 import java.io.IOException;
+import java.security.PublicKey;
+import jenkins.bouncycastle.api.PEMEncodable;
+import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
@@ -24,9 +27,12 @@ import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.RestartableJenkinsRule;
 
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.hamcrest.Matchers.is;
@@ -81,9 +87,10 @@ public class SSHAgentStepWorkflowTest extends SSHAgentBase {
      *
      * 1. The Job is executed successfully
      * 2. SSH_AUTH_SOCK is available before and after Jenkins was restarted
-     * 3. SSH_AUTH_SOCK has different values before and after Jenkins was restarted
+     * 3. SSH_AUTH_SOCK has the same value before and after Jenkins was restarted
      *
-     * It verifies that {@link SSHAgentStepExecution#onResume()} method is invoked and a new SSH Agent is launched after Jenkins is restarted.
+     * It verifies that {@link SSHAgentStepExecution#onResume()} method is invoked and a new SSH Agent is launched
+     * on the socket of the previous one after Jenkins is restarted.
      *
      * @throws Exception
      */
@@ -132,27 +139,210 @@ public class SSHAgentStepWorkflowTest extends SSHAgentBase {
 
                 story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
 
-                Pattern pattern = Pattern.compile("(?:SSH Agent (?:before|after) restart )/.+/ssh-.+/agent.(\\d)+");
-                Scanner sc = new Scanner(b.getLogFile());
-                List<String> socketFile = new ArrayList<String>();
-                while (sc.hasNextLine()) {
-                    String match = sc.findInLine(pattern);
-                    if (match != null) {
-                        socketFile.add(match);
-                    } else {
-                        sc.nextLine();
-                    }
-                }
-                sc.close();
-
-                assertEquals(socketFile.toString(), 2, socketFile.size());
-                assertNotEquals(socketFile.get(0), socketFile.get(1));
+                String log = JenkinsRule.getLog(b);
+                List<String> sockets = sockets(log, "SSH Agent (?:before|after) restart");
+                assertEquals(log, 2, sockets.size());
+                assertEquals("the agent is restarted on the same socket", sockets.get(0), sockets.get(1));
+                story.j.assertLogContains("[ssh-agent] Restarting ", b);
                 stopMockSSHServer();
             }
         });
 
     }
 
+    /**
+     * Verifies that blocks sharing an agent get it back on the same socket after a restart.
+     */
+    @Test
+    public void sharedAgentAvailableAfterRestart() throws Exception {
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                startMockSSHServer();
+
+                SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+                SystemCredentialsProvider.getInstance().getCredentials().add(key);
+                SystemCredentialsProvider.getInstance().save();
+
+                WorkflowJob p = story.j.jenkins.createProject(WorkflowJob.class, "sharedAgentAvailableAfterRestart");
+                p.setDefinition(new CpsFlowDefinition(""
+                        + "node {\n"
+                        + "  parallel a: {\n"
+                        + "    sshagent (credentials: ['" + CREDENTIAL_ID + "'], shared: true) {\n"
+                        + "      echo \"shared agent ${env.SSH_AUTH_SOCK}\"\n"
+                        + "      semaphore 'a'\n"
+                        + "      sh 'ssh -o StrictHostKeyChecking=no -p " + getAssignedPort() + " -v -l cloudbees " + SSH_SERVER_HOST + "'\n"
+                        + "      echo \"shared agent ${env.SSH_AUTH_SOCK}\"\n"
+                        + "    }\n"
+                        + "  }, b: {\n"
+                        + "    sshagent (credentials: ['" + CREDENTIAL_ID + "'], shared: true) {\n"
+                        + "      echo \"shared agent ${env.SSH_AUTH_SOCK}\"\n"
+                        + "      semaphore 'b'\n"
+                        + "      sh 'ssh -o StrictHostKeyChecking=no -p " + getAssignedPort() + " -v -l cloudbees " + SSH_SERVER_HOST + "'\n"
+                        + "      echo \"shared agent ${env.SSH_AUTH_SOCK}\"\n"
+                        + "    }\n"
+                        + "  }\n"
+                        + "}\n", true));
+                WorkflowRun b = p.scheduleBuild2(0).getStartCondition().get();
+                SemaphoreStep.waitForStart("a/1", b);
+                SemaphoreStep.waitForStart("b/1", b);
+                assertTrue(JenkinsRule.getLog(b), b.isBuilding());
+            }
+        });
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                WorkflowJob p = story.j.jenkins.getItemByFullName("sharedAgentAvailableAfterRestart", WorkflowJob.class);
+                WorkflowRun b = p.getBuildByNumber(1);
+
+                SemaphoreStep.success("a/1", null);
+                SemaphoreStep.success("b/1", null);
+
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(b));
+
+                String log = JenkinsRule.getLog(b);
+                List<String> sockets = sockets(log, "shared agent");
+                assertEquals(log, 4, sockets.size());
+                assertEquals(log, 1, new HashSet<String>(sockets).size());
+                story.j.assertLogContains("[ssh-agent] Restarting ", b);
+                stopMockSSHServer();
+            }
+        });
+    }
+
+    /**
+     * Picks the sockets echoed after a prefix in a build log.
+     */
+    private static List<String> sockets(String log, String prefix) {
+        List<String> sockets = new ArrayList<String>();
+        Matcher m = Pattern.compile(prefix + " (\\S+)").matcher(log);
+        while (m.find()) {
+            sockets.add(m.group(1));
+        }
+        return sockets;
+    }
+
+    /**
+     * Verifies that a nested block adds its credentials to the agent of the enclosing block rather than starting
+     * another agent, and removes them again when it ends.
+     */
+    @Test
+    public void nestedBlockReusesEnclosingAgent() throws Exception {
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                startMockSSHServer();
+
+                SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+                SystemCredentialsProvider.getInstance().getCredentials().add(key);
+                SSHUserPrivateKey nestedKey = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, "nested", "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getOtherPrivateKey()), null, "nested");
+                SystemCredentialsProvider.getInstance().getCredentials().add(nestedKey);
+                SystemCredentialsProvider.getInstance().save();
+
+                WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "nestedBlockReusesEnclosingAgent");
+                job.setDefinition(new CpsFlowDefinition(""
+                        + "node {\n"
+                        + "  sshagent (credentials: ['" + CREDENTIAL_ID + "']) {\n"
+                        + "    echo \"outer agent ${env.SSH_AUTH_SOCK}\"\n"
+                        + "    sshagent (credentials: ['nested']) {\n"
+                        + "      echo \"nested agent ${env.SSH_AUTH_SOCK}\"\n"
+                        + "      sh 'ssh-add -L | sed \"s/^/inside: /\"'\n"
+                        + "      sh 'ssh -o StrictHostKeyChecking=no -p " + getAssignedPort() + " -v -l cloudbees " + SSH_SERVER_HOST + "'\n"
+                        + "    }\n"
+                        + "    sh 'ssh-add -L | sed \"s/^/after: /\"'\n"
+                        + "    sh 'ssh -o StrictHostKeyChecking=no -p " + getAssignedPort() + " -v -l cloudbees " + SSH_SERVER_HOST + "'\n"
+                        + "  }\n"
+                        + "}\n", true)
+                );
+                WorkflowRun b = story.j.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+                String log = JenkinsRule.getLog(b);
+                assertEquals(log, 1, StringUtils.countMatches(log, Messages.SSHAgentBuildWrapper_Started()));
+                story.j.assertLogContains(Messages.SSHAgentStepExecution_UsingEnclosingAgent(), b);
+                Matcher outer = Pattern.compile("outer agent (\\S+)").matcher(log);
+                Matcher nested = Pattern.compile("nested agent (\\S+)").matcher(log);
+                assertTrue(log, outer.find());
+                assertTrue(log, nested.find());
+                assertEquals(outer.group(1), nested.group(1));
+
+                String outerBlob = publicKeyBlob(getPrivateKey(), "cloudbees");
+                String nestedBlob = publicKeyBlob(getOtherPrivateKey(), null);
+                List<String> inside = listedKeys(log, "inside");
+                assertEquals(log, 2, inside.size());
+                assertThat(inside, hasItem(outerBlob));
+                assertThat(inside, hasItem(nestedBlob));
+                assertEquals(log, Collections.singletonList(outerBlob), listedKeys(log, "after"));
+
+                stopMockSSHServer();
+            }
+        });
+    }
+
+    /**
+     * Encodes the public half of a private key as {@code ssh-add -L} lists it.
+     */
+    private static String publicKeyBlob(String privateKey, String passphrase) throws Exception {
+        PublicKey publicKey = PEMEncodable.decode(privateKey, passphrase == null ? null : passphrase.toCharArray())
+                .toKeyPair().getPublic();
+        return Base64.getEncoder().encodeToString(SSHPublicKeys.encode(publicKey));
+    }
+
+    /**
+     * Picks the keys out of the {@code ssh-add -L} lines prefixed with {@code label} in a build log.
+     */
+    private static List<String> listedKeys(String log, String label) {
+        List<String> keys = new ArrayList<String>();
+        Matcher m = Pattern.compile("^" + label + ": ssh-\\S+ (\\S+)", Pattern.MULTILINE).matcher(log);
+        while (m.find()) {
+            keys.add(m.group(1));
+        }
+        return keys;
+    }
+
+    /**
+     * Verifies that parallel branches with {@code shared: true} use a single agent.
+     */
+    @Test
+    public void sharedAgentAcrossParallelBranches() throws Exception {
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                startMockSSHServer();
+
+                SSHUserPrivateKey key = new BasicSSHUserPrivateKey(CredentialsScope.GLOBAL, CREDENTIAL_ID, "cloudbees",
+                        new BasicSSHUserPrivateKey.DirectEntryPrivateKeySource(getPrivateKey()), "cloudbees", "test");
+                SystemCredentialsProvider.getInstance().getCredentials().add(key);
+                SystemCredentialsProvider.getInstance().save();
+
+                WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "sharedAgentAcrossParallelBranches");
+                job.setDefinition(new CpsFlowDefinition(""
+                        + "node {\n"
+                        + "  def branches = [:]\n"
+                        + "  for (int i = 0; i < 3; i++) {\n"
+                        + "    branches[\"branch${i}\"] = {\n"
+                        + "      sshagent (credentials: ['" + CREDENTIAL_ID + "'], shared: true) {\n"
+                        + "        sh 'ssh -o StrictHostKeyChecking=no -p " + getAssignedPort() + " -v -l cloudbees " + SSH_SERVER_HOST + "'\n"
+                        + "      }\n"
+                        + "    }\n"
+                        + "  }\n"
+                        + "  parallel branches\n"
+                        + "}\n", true)
+                );
+                WorkflowRun b = story.j.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+                String log = JenkinsRule.getLog(b);
+                assertEquals(log, 1, StringUtils.countMatches(log, Messages.SSHAgentBuildWrapper_Started()));
+                assertEquals(log, 2, StringUtils.countMatches(log, Messages.SSHAgentStepExecution_UsingSharedAgent()));
+                assertEquals(log, 1, StringUtils.countMatches(log, Messages.SSHAgentBuildWrapper_Stopped()));
+
+                stopMockSSHServer();
+            }
+        });
+    }
+
     @Issue("JENKINS-38830")
     @Test
     public void testTrackingOfCredential() {
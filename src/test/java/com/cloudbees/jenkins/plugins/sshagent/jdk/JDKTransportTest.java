@@ -0,0 +1,91 @@
+package com.cloudbees.jenkins.plugins.sshagent.jdk;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentClient;
+import com.cloudbees.jenkins.plugins.sshagent.jna.AgentServer;
+import com.cloudbees.jenkins.plugins.sshagent.jna.LocalAgent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class JDKTransportTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Before
+    public void unixDomainSockets() {
+        assumeTrue("unix domain sockets need Java 16", JDKTransport.isAvailable());
+    }
+
+    @Test
+    public void bindAcceptAndSign() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair key = generator.generateKeyPair();
+        LocalAgent agent = new LocalAgent();
+        agent.addIdentity(key, "test");
+        byte[] data = "session identifier".getBytes(StandardCharsets.US_ASCII);
+
+        AgentServer server = new AgentServer(agent, tmp.newFolder(), JDKTransport.INSTANCE);
+        String socket = server.start();
+        try {
+            assertTrue(new File(socket).exists());
+            AgentClient client = AgentClient.connect(socket);
+            try {
+                List<byte[]> identities = client.requestIdentities();
+                assertEquals(1, identities.size());
+
+                ByteBuffer signature = ByteBuffer.wrap(client.sign(identities.get(0), data));
+                assertEquals("ssh-rsa", new String(string(signature), StandardCharsets.US_ASCII));
+                Signature verifier = Signature.getInstance("SHA1withRSA");
+                verifier.initVerify(key.getPublic());
+                verifier.update(data);
+                assertTrue(verifier.verify(string(signature)));
+            } finally {
+                client.close();
+            }
+            assertEquals(1, server.getStatistics().getConnections());
+        } finally {
+            server.close();
+        }
+        assertFalse(new File(socket).exists());
+    }
+
+    @Test
+    public void failedBindClosesTheChannel() throws Exception {
+        File fds = new File("/proc/self/fd");
+        assumeTrue(fds.isDirectory());
+        String missing = new File(tmp.getRoot(), "missing/agent.sock").getAbsolutePath();
+        int before = fds.list().length;
+        for (int i = 0; i < 100; i++) {
+            try {
+                JDKTransport.INSTANCE.bind(missing);
+                fail("bound in a missing directory");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+        assertTrue("no channel left open", fds.list().length < before + 10);
+    }
+
+    private static byte[] string(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+    }
+}
@@ -0,0 +1,70 @@
+package com.cloudbees.jenkins.plugins.sshagent.jfr;
+
+import com.cloudbees.jenkins.plugins.sshagent.jna.AgentServer;
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Records the events of an agent with JFR. The plugin is built for Java 8, so {@code jdk.jfr} is used reflectively,
+ * and the test is skipped on JVMs without it.
+ */
+public class AgentEventsTest {
+
+    private static final String PREFIX = "com.cloudbees.jenkins.plugins.sshagent.";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void agentStartAndStop() throws Exception {
+        assumeTrue("JFR is available", FlightRecorder.isAvailable());
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        for (String name : new String[]{"AgentStart", "AgentStop"}) {
+            Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, PREFIX + name);
+            Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class)
+                    .invoke(settings, Duration.ZERO);
+        }
+        recordingClass.getMethod("start").invoke(recording);
+        String socket;
+        try {
+            AgentServer server = new AgentServer(tmp.newFolder());
+            socket = server.start();
+            server.close();
+        } finally {
+            recordingClass.getMethod("stop").invoke(recording);
+        }
+        Path dump = new File(tmp.getRoot(), "agent.jfr").toPath();
+        recordingClass.getMethod("dump", Path.class).invoke(recording, dump);
+        recordingClass.getMethod("close").invoke(recording);
+
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        Class<?> eventType = Class.forName("jdk.jfr.EventType");
+        List<String> names = new ArrayList<String>();
+        List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                .getMethod("readAllEvents", Path.class).invoke(null, dump);
+        for (Object event : events) {
+            Object type = recordedEvent.getMethod("getEventType").invoke(event);
+            String name = (String) eventType.getMethod("getName").invoke(type);
+            if (name.startsWith(PREFIX)) {
+                assertEquals(name, socket, recordedEvent.getMethod("getString", String.class).invoke(event, "socket"));
+                names.add(name.substring(PREFIX.length()));
+            }
+        }
+        Collections.sort(names);
+        List<String> expected = new ArrayList<String>();
+        expected.add("AgentStart");
+        expected.add("AgentStop");
+        assertEquals(expected, names);
+    }
+}
@@ -0,0 +1,112 @@
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentClient;
+import com.cloudbees.jenkins.plugins.sshagent.AgentStatistics;
+import com.cloudbees.jenkins.plugins.sshagent.SSHPublicKeys;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AgentMetricsTest {
+
+    private static final byte[] DATA = "session identifier".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void snapshot() {
+        byte[] blob = {0, 0, 0, 7, 's', 's', 'h', '-', 'r', 's', 'a'};
+        AgentMetrics metrics = new AgentMetrics();
+        metrics.connected();
+        metrics.connected();
+        metrics.read(10);
+        metrics.written(20);
+        metrics.request(11);
+        metrics.request(13);
+        metrics.request(13);
+        metrics.signed(blob, TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.signed(blob.clone(), TimeUnit.MICROSECONDS.toNanos(1000));
+        metrics.error();
+
+        assertEquals(2, metrics.connections());
+        assertEquals(3, metrics.requests());
+        AgentStatistics statistics = metrics.snapshot();
+        assertEquals(2, statistics.getConnections());
+        assertEquals(1, statistics.getErrors());
+        assertEquals(10, statistics.getBytesIn());
+        assertEquals(20, statistics.getBytesOut());
+        Map<String, Long> requests = new HashMap<String, Long>();
+        requests.put("request-identities", 1L);
+        requests.put("sign", 2L);
+        assertEquals(requests, statistics.getRequests());
+        assertEquals("signatures are counted by key, not by array",
+                Collections.singletonMap(SSHPublicKeys.fingerprint(blob), 2L), statistics.getSignatures());
+        assertEquals(2, statistics.getSignatureCount());
+        assertWithin(100, statistics.getSignP50Micros());
+        assertWithin(1000, statistics.getSignP99Micros());
+        assertWithin(1000, statistics.getSignMaxMicros());
+    }
+
+    @Test
+    public void countedByTheServer() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair key = generator.generateKeyPair();
+        KeyPair unknown = generator.generateKeyPair();
+        LocalAgent agent = new LocalAgent();
+        agent.addIdentity(key, "test");
+        AgentServer server = new AgentServer(agent, tmp.newFolder());
+        String socket = server.start();
+        try {
+            AgentClient client = AgentClient.connect(socket);
+            try {
+                byte[] blob = client.requestIdentities().get(0);
+                for (int i = 0; i < 3; i++) {
+                    client.sign(blob, DATA);
+                }
+                try {
+                    client.sign(SSHPublicKeys.encode(unknown.getPublic()), DATA);
+                    fail("signed with a key the agent does not hold");
+                } catch (IOException expected) {
+                    // expected
+                }
+
+                AgentStatistics statistics = server.getStatistics();
+                assertEquals(1, statistics.getConnections());
+                assertEquals(1, statistics.getErrors());
+                Map<String, Long> requests = new HashMap<String, Long>();
+                requests.put("request-identities", 1L);
+                requests.put("sign", 4L);
+                assertEquals(requests, statistics.getRequests());
+                assertEquals(Collections.singletonMap(SSHPublicKeys.fingerprint(blob), 3L),
+                        statistics.getSignatures());
+                assertTrue(statistics.getBytesIn() > 0);
+                assertTrue(statistics.getBytesOut() > 0);
+                assertTrue(statistics.getSignP50Micros() <= statistics.getSignMaxMicros());
+                assertEquals(5, server.getRequests());
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is at least " + expected, actual >= expected);
+        assertTrue(actual + " is within 12.5% of " + expected, actual - expected <= expected / 8);
+    }
+}
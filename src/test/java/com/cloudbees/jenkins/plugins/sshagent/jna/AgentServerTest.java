@@ -0,0 +1,230 @@
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import com.cloudbees.jenkins.plugins.sshagent.AgentClient;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.sshd.common.util.OsUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class AgentServerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void idleClientsAreDisconnected() throws Exception {
+        long idleTimeout = AgentServer.IDLE_TIMEOUT;
+        AgentServer.IDLE_TIMEOUT = 500;
+        AgentServer server;
+        try {
+            server = new AgentServer(tmp.newFolder());
+        } finally {
+            AgentServer.IDLE_TIMEOUT = idleTimeout;
+        }
+        String socket = server.start();
+        try {
+            AgentClient client = AgentClient.connect(socket);
+            try {
+                client.requestIdentities();
+                assertEquals(1, server.getSessions());
+                awaitSessions(server, 0);
+                try {
+                    client.requestIdentities();
+                    fail("still connected");
+                } catch (IOException expected) {
+                    // expected
+                }
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void sessionLimit() throws Exception {
+        int maxSessions = AgentServer.MAX_SESSIONS;
+        AgentServer.MAX_SESSIONS = 2;
+        AgentServer server;
+        try {
+            server = new AgentServer(tmp.newFolder());
+        } finally {
+            AgentServer.MAX_SESSIONS = maxSessions;
+        }
+        String socket = server.start();
+        List<AgentClient> clients = new ArrayList<AgentClient>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                clients.add(AgentClient.connect(socket));
+            }
+            clients.get(0).requestIdentities();
+            clients.get(1).requestIdentities();
+            awaitSessions(server, 2);
+            Thread.sleep(500);
+            assertEquals("the third client waits in the backlog", 2, server.getSessions());
+
+            clients.remove(0).close();
+            clients.get(1).requestIdentities(); // answered once the first client is gone
+            assertEquals(2, server.getSessions());
+        } finally {
+            for (AgentClient client : clients) {
+                client.close();
+            }
+            server.close();
+        }
+    }
+
+    @Test
+    public void requestsSentBeforeCloseAreAnswered() throws Exception {
+        AgentServer server = new AgentServer(tmp.newFolder());
+        String socket = server.start();
+        AgentClient client = AgentClient.connect(socket);
+        try {
+            client.requestIdentities();
+            client.write(AgentClient.request(AgentClient.SSH2_AGENTC_REQUEST_IDENTITIES, new byte[0]));
+            long start = System.nanoTime();
+            server.close();
+            assertTrue("the connected client is not waited for once answered",
+                    System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertEquals(0, client.readIdentities().size());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void partialRequestsAreCompletedBeforeClose() throws Exception {
+        final AgentServer server = new AgentServer(tmp.newFolder());
+        String socket = server.start();
+        AgentClient client = AgentClient.connect(socket);
+        Thread closing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.close();
+            }
+        });
+        try {
+            ByteBuffer request = AgentClient.request(AgentClient.SSH2_AGENTC_REQUEST_IDENTITIES, new byte[0]);
+            request.limit(3);
+            client.write(request);
+            awaitSessions(server, 1);
+            closing.start();
+            Thread.sleep(500);
+            assertTrue("waits for the rest of the request", closing.isAlive());
+            request.limit(request.capacity());
+            client.write(request);
+            assertEquals(0, client.readIdentities().size());
+            closing.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(closing.isAlive());
+        } finally {
+            client.close();
+            if (closing.getState() == Thread.State.NEW) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void acceptRate() {
+        AgentServer.AcceptRate rate = new AgentServer.AcceptRate(2, 0);
+        assertEquals("starts with a burst", 0, rate.take(0));
+        assertEquals("then waits for a token", 500, rate.take(0));
+        assertEquals(1000, rate.take(500));
+        assertEquals("refills at the rate", 0, rate.take(5000));
+        assertEquals("the burst is capped at the rate", 5500, rate.take(5000));
+    }
+
+    @Test
+    public void registeredAsMBean() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        LocalAgent agent = new LocalAgent();
+        agent.addIdentity(generator.generateKeyPair(), "test");
+        AgentServer server = new AgentServer(agent, tmp.newFolder());
+        String socket = server.start();
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = null;
+        try {
+            Set<ObjectName> names = mbeans.queryNames(
+                    new ObjectName("com.cloudbees.jenkins.plugins.sshagent:type=AgentServer,*"), null);
+            for (ObjectName candidate : names) {
+                if (socket.equals(ObjectName.unquote(candidate.getKeyProperty("socket")))) {
+                    name = candidate;
+                }
+            }
+            assertNotNull("registered as one of " + names, name);
+            assertEquals(socket, mbeans.getAttribute(name, "Socket"));
+            assertEquals(1, mbeans.getAttribute(name, "Identities"));
+            assertEquals(0, mbeans.getAttribute(name, "Sessions"));
+
+            AgentClient client = AgentClient.connect(socket);
+            try {
+                client.requestIdentities();
+                assertEquals(1, mbeans.getAttribute(name, "Sessions"));
+                assertEquals(1L, mbeans.getAttribute(name, "Requests"));
+            } finally {
+                client.close();
+            }
+        } finally {
+            server.close();
+        }
+        assertFalse("unregistered once closed", mbeans.isRegistered(name));
+    }
+
+    @Test
+    public void runtimeDirIsPrivate() throws Exception {
+        assumeTrue(OsUtils.isUNIX());
+        File root = new File(tmp.getRoot(), "shm");
+        File dir = AgentServer.runtimeDir(root.getPath());
+        assertEquals(root, dir.getParentFile());
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir.toPath())));
+
+        Files.setPosixFilePermissions(dir.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertEquals(dir, AgentServer.runtimeDir(root.getPath()));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir.toPath())));
+    }
+
+    @Test
+    public void runtimeDirMustNotBeALink() throws Exception {
+        assumeTrue(OsUtils.isUNIX());
+        File root = tmp.newFolder("shm");
+        File dir = AgentServer.runtimeDir(root.getPath());
+        Files.delete(dir.toPath());
+        Files.createSymbolicLink(dir.toPath(), tmp.newFolder("elsewhere").toPath());
+        try {
+            AgentServer.runtimeDir(root.getPath());
+            fail("followed a link");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    private static void awaitSessions(AgentServer server, int sessions) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getSessions() != sessions && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(sessions, server.getSessions());
+    }
+}
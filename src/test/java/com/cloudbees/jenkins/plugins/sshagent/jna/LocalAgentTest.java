@@ -0,0 +1,204 @@
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+import org.apache.sshd.common.SshException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalAgentTest {
+
+    private static final byte[] DATA = "session identifier and userauth request".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void dsaSignaturesVerify() throws Exception {
+        KeyPair dsa = generate("DSA", 1024);
+        for (LocalAgent.Randomness randomness : LocalAgent.Randomness.values()) {
+            byte[] signature = sign(new LocalAgent(randomness), dsa, DATA);
+            assertEquals("ssh-dss signatures are r and s on 20 bytes each", 40, signature.length);
+            BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 0, 20));
+            BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, 20, 40));
+            assertTrue(randomness.name(), verify("SHA1withDSA", dsa.getPublic(), DATA, r, s));
+        }
+    }
+
+    @Test
+    public void ecdsaP256SignaturesVerify() throws Exception {
+        assertEcdsaSignaturesVerify("secp256r1", "SHA256withECDSA");
+    }
+
+    @Test
+    public void ecdsaP384SignaturesVerify() throws Exception {
+        assertEcdsaSignaturesVerify("secp384r1", "SHA384withECDSA");
+    }
+
+    @Test
+    public void ecdsaP521SignaturesVerify() throws Exception {
+        assertEcdsaSignaturesVerify("secp521r1", "SHA512withECDSA");
+    }
+
+    private static void assertEcdsaSignaturesVerify(String curve, String algorithm) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        KeyPair ec = generator.generateKeyPair();
+        for (LocalAgent.Randomness randomness : LocalAgent.Randomness.values()) {
+            BigInteger[] rs = mpints(sign(new LocalAgent(randomness), ec, DATA));
+            assertTrue(curve + " " + randomness.name(), verify(algorithm, ec.getPublic(), DATA, rs[0], rs[1]));
+        }
+    }
+
+    @Test
+    public void rfc6979IsDeterministic() throws Exception {
+        KeyPair dsa = generate("DSA", 1024);
+        KeyPair ec = generate("EC", 256);
+        LocalAgent agent = new LocalAgent(LocalAgent.Randomness.RFC6979);
+        assertArrayEquals(sign(agent, dsa, DATA), sign(agent, dsa, DATA));
+        assertArrayEquals(sign(agent, ec, DATA), sign(agent, ec, DATA));
+        assertFalse("a different message gets a different nonce", mpints(sign(agent, ec, DATA))[0].equals(
+                mpints(sign(agent, ec, "other".getBytes(StandardCharsets.US_ASCII)))[0]));
+        LocalAgent random = new LocalAgent(LocalAgent.Randomness.THREAD_LOCAL);
+        assertFalse(Arrays.equals(sign(random, ec, DATA), sign(random, ec, DATA)));
+    }
+
+    /**
+     * RFC 6979 appendix A.2.5: ECDSA, 256 bits (prime field), with SHA-256, message "sample".
+     */
+    @Test
+    public void rfc6979TestVector() throws Exception {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec("secp256r1"));
+        ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+        KeyFactory factory = KeyFactory.getInstance("EC");
+        KeyPair key = new KeyPair(
+                factory.generatePublic(new ECPublicKeySpec(new ECPoint(
+                        new BigInteger("60FED4BA255A9D31C961EB74C6356D68C049B8923B61FA6CE669622E60F29FB6", 16),
+                        new BigInteger("7903FE1008B8BC99A41AE9E95628BC64F2F1B20C2D7E9F5177A3C294D4462299", 16)),
+                        spec)),
+                factory.generatePrivate(new ECPrivateKeySpec(
+                        new BigInteger("C9AFA9D845BA75166B5C215767B1D6934E50C3DB36E89B127B8A622B120F6721", 16),
+                        spec)));
+
+        BigInteger[] rs = mpints(sign(new LocalAgent(LocalAgent.Randomness.RFC6979), key,
+                "sample".getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals(new BigInteger("EFD48B2AACB6A8FD1140DD9CD45E81D69D2C877B56AAF991C34D0EA84EAF3716", 16), rs[0]);
+        assertEquals(new BigInteger("F7CB1C942D657C41D436C7A1B6E29F65F3E900DBB9AFF4064DC4AB2F843ACDA8", 16), rs[1]);
+    }
+
+    @Test
+    public void identitiesByPublicKey() throws Exception {
+        KeyPair first = generate("EC", 256);
+        KeyPair second = generate("RSA", 2048);
+        LocalAgent agent = new LocalAgent();
+        agent.addIdentity(first, "first");
+        agent.addIdentity(second, "second");
+        agent.addIdentity(first, "first again");
+        assertEquals(2, agent.getIdentities().size());
+        assertEquals("first", agent.getIdentities().get(0).getSecond());
+
+        agent.removeIdentity(first.getPublic());
+        agent.sign(first.getPublic(), DATA); // still added once
+        agent.removeIdentity(first.getPublic());
+        try {
+            agent.sign(first.getPublic(), DATA);
+            fail("removed as often as added");
+        } catch (SshException expected) {
+            // expected
+        }
+        assertEquals(1, agent.getIdentities().size());
+        agent.sign(second.getPublic(), DATA);
+    }
+
+    private static KeyPair generate(String algorithm, int bits) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize(bits);
+        return generator.generateKeyPair();
+    }
+
+    private static byte[] sign(LocalAgent agent, KeyPair key, byte[] data) throws IOException {
+        agent.addIdentity(key, "test");
+        try {
+            return agent.sign(key.getPublic(), data);
+        } finally {
+            agent.removeIdentity(key.getPublic());
+        }
+    }
+
+    /**
+     * Reads the two mpints of an ecdsa-sha2-* signature blob (RFC 5656 section 3.1.2).
+     */
+    private static BigInteger[] mpints(byte[] signature) {
+        ByteBuffer buffer = ByteBuffer.wrap(signature);
+        BigInteger[] values = new BigInteger[2];
+        for (int i = 0; i < values.length; i++) {
+            byte[] mpint = new byte[buffer.getInt()];
+            buffer.get(mpint);
+            values[i] = new BigInteger(mpint);
+        }
+        assertFalse("no trailing bytes", buffer.hasRemaining());
+        return values;
+    }
+
+    private static boolean verify(String algorithm, PublicKey key, byte[] data, BigInteger r, BigInteger s)
+            throws GeneralSecurityException {
+        Signature verifier = Signature.getInstance(algorithm);
+        verifier.initVerify(key);
+        verifier.update(data);
+        return verifier.verify(der(r, s));
+    }
+
+    /**
+     * Encodes r and s as the DER sequence the JDK signatures take.
+     */
+    private static byte[] der(BigInteger r, BigInteger s) {
+        byte[] rBytes = r.toByteArray();
+        byte[] sBytes = s.toByteArray();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0x02);
+        length(body, rBytes.length);
+        body.write(rBytes, 0, rBytes.length);
+        body.write(0x02);
+        length(body, sBytes.length);
+        body.write(sBytes, 0, sBytes.length);
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        der.write(0x30);
+        length(der, body.size());
+        byte[] content = body.toByteArray();
+        der.write(content, 0, content.length);
+        return der.toByteArray();
+    }
+
+    private static void length(ByteArrayOutputStream out, int length) {
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+    }
+}
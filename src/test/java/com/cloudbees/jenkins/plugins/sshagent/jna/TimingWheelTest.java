@@ -0,0 +1,81 @@
+package com.cloudbees.jenkins.plugins.sshagent.jna;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimingWheelTest {
+
+    @Test
+    public void scheduleAndExpire() {
+        TimingWheel<String> wheel = new TimingWheel<String>(64, 10, 0);
+        assertEquals("nothing to wait for", 0, wheel.getTickMillis());
+        wheel.schedule("a", 55);
+        assertEquals(10, wheel.getTickMillis());
+        assertEquals(Collections.emptyList(), wheel.expire(49));
+        assertEquals(Collections.singletonList("a"), wheel.expire(55));
+        assertEquals(Collections.emptyList(), wheel.expire(1000));
+        assertEquals(0, wheel.getTickMillis());
+    }
+
+    @Test
+    public void pushedBack() {
+        TimingWheel<String> wheel = new TimingWheel<String>(64, 10, 0);
+        TimingWheel.Timeout<String> timeout = wheel.schedule("a", 55);
+        timeout.setDeadline(200);
+        assertEquals(Collections.emptyList(), wheel.expire(60));
+        assertEquals(Collections.emptyList(), wheel.expire(199));
+        assertEquals(Collections.singletonList("a"), wheel.expire(200));
+    }
+
+    @Test
+    public void cancel() {
+        TimingWheel<String> wheel = new TimingWheel<String>(64, 10, 0);
+        TimingWheel.Timeout<String> a = wheel.schedule("a", 55);
+        wheel.schedule("b", 55);
+        wheel.cancel(a);
+        wheel.cancel(a);
+        assertEquals(Collections.singletonList("b"), wheel.expire(100));
+        assertEquals("cancelling twice did not skew the count", 0, wheel.getTickMillis());
+    }
+
+    @Test
+    public void wrapsAround() {
+        TimingWheel<String> wheel = new TimingWheel<String>(64, 10, 0);
+        wheel.schedule("far", 2 * 64 * 10 + 50); // two turns of the wheel, in the same slot as "near"
+        wheel.schedule("near", 50);
+        for (long now = 0; now < 2 * 64 * 10 + 50; now += 10) {
+            assertEquals(now == 50 ? Collections.singletonList("near") : Collections.<String>emptyList(),
+                    wheel.expire(now));
+        }
+        assertEquals(Collections.singletonList("far"), wheel.expire(2 * 64 * 10 + 50));
+    }
+
+    @Test
+    public void catchesUpAfterAStaleTick() {
+        TimingWheel<String> wheel = new TimingWheel<String>(64, 10, 0);
+        wheel.schedule("a", 55);
+        wheel.schedule("b", 5000);
+        wheel.schedule("c", 200000);
+        assertEquals(Arrays.asList("a", "b"), sorted(wheel.expire(100000)));
+
+        wheel.schedule("d", 100050);
+        assertEquals(Collections.emptyList(), wheel.expire(100049));
+        assertEquals(Collections.singletonList("d"), wheel.expire(100050));
+        assertEquals(Collections.emptyList(), wheel.expire(199999));
+        assertEquals(Collections.singletonList("c"), wheel.expire(200000));
+
+        assertEquals("an empty wheel skips ahead", Collections.emptyList(), wheel.expire(10000000));
+        wheel.schedule("e", 10000050);
+        assertEquals(Collections.emptyList(), wheel.expire(10000049));
+        assertEquals(Collections.singletonList("e"), wheel.expire(10000050));
+    }
+
+    private static List<String> sorted(List<String> values) {
+        Collections.sort(values);
+        return values;
+    }
+}